@@ -4,9 +4,16 @@ import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
-import java.util.ArrayList;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.Base64;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.io.*;
 
 import org.json.JSONArray;
@@ -18,6 +25,8 @@ Main object:
 	master: User
 	users: list(User)
 
+changes since the main file was last written are kept in a journal next to it, see JOURNAL below
+
 User:
 	username: string
 	passhash: hash,salt
@@ -25,109 +34,206 @@ User:
  */
 
 public class Auth {
+	private static final int ITERATIONS = 310000;
+
+	//KDF work runs on a small pool with a bounded fair queue, a burst of logins waits its turn or is refused
+	//instead of taking every core away from process monitoring
+	private static final int HASH_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private static final int HASH_QUEUE = 64;
+	private static final LongAdder rejected = new LongAdder();
+	private static final ThreadPoolExecutor hasher = new ThreadPoolExecutor(HASH_THREADS, HASH_THREADS, 0, TimeUnit.SECONDS,
+		new ArrayBlockingQueue<>(HASH_QUEUE, true), task -> {
+			Thread thread = new Thread(task, "password-hasher");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}, (task, pool) -> {
+			rejected.increment();
+			throw new RejectedExecutionException("password hashing queue is full");
+		});
+
+	//synchronous admin work (adding users, changing passwords, master checks) has its own hashing thread and an
+	//unbounded queue, so a burst of logins filling the queue above never makes it fail, it only waits its turn here
+	private static final ThreadPoolExecutor adminHasher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+		new LinkedBlockingQueue<>(), task -> {
+			Thread thread = new Thread(task, "admin-password-hasher");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+
+	//factories and generators are expensive to create, each hashing thread keeps its own
+	private static final ThreadLocal<SecretKeyFactory> factory = ThreadLocal.withInitial(() -> {
+		try {
+			return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+	private static final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(SecureRandom::new);
+
+	public static final Dispatcher.Stage hashWait = new Dispatcher.Stage();
+	public static final Dispatcher.Stage hashTime = new Dispatcher.Stage();
+
+	//login attempts per address: a burst of ATTEMPT_BURST, then one every ATTEMPT_REFILL
+	private static final int ATTEMPT_BURST = 5;
+	private static final long ATTEMPT_REFILL = TimeUnit.SECONDS.toNanos(2);
+	private static final int MAX_TRACKED = 4096;
+	private static final Map<InetAddress, Bucket> attempts = new ConcurrentHashMap<>();
+	private static final LongAdder limited = new LongAdder();
+
+	private static class Bucket {
+		private double tokens = ATTEMPT_BURST;
+		private long updated = System.nanoTime();
+
+		synchronized boolean take() {
+			refill(System.nanoTime());
+			if(tokens < 1) {
+				return false;
+			}
+			tokens--;
+			return true;
+		}
+
+		//full again, nothing to remember about this address
+		synchronized boolean idle(long now) {
+			refill(now);
+			return tokens >= ATTEMPT_BURST;
+		}
+
+		private void refill(long now) {
+			tokens = Math.min(ATTEMPT_BURST, tokens + (double) (now - updated) / ATTEMPT_REFILL);
+			updated = now;
+		}
+	}
+
+	//records are never changed in place, a change replaces the record so readers always see a whole one
 	private static class User {
-		public String username;
-		public String passhash;
+		public final String username;
+		public final String passhash;
+
+		User(String username, String passhash) {
+			this.username = username;
+			this.passhash = passhash;
+		}
 	}
 
+	//the journal is folded into the main file once it holds more records than this (or more than there are users)
+	private static final int COMPACT_AFTER = 1024;
+
 	private String FilePath;
+	private final Path file;
+	private final Path journalFile;
+	private FileChannel journal = null;
+	private int journalRecords = 0;
 
-	private User master = new User();
-	private final List<User> users = new ArrayList<>();
+	private volatile User master = new User("", "");
+	private final Map<String, User> users = new ConcurrentHashMap<>();
 
 	Auth(String file) {
 		FilePath = file;
+		this.file = Paths.get(file);
+		journalFile = Paths.get(file + ".journal");
 
-		File check = new File(file);
-		if(check.exists()) {
+		if(Files.exists(this.file)) {
 			readData();
-		} else {
-			master.username = "";
-			master.passhash = "";
 		}
+		replayJournal();
 	}
 
 	public void setMasterUsername(String username) {
-		master.username = username;
-		writeFile();
+		commit(record("master").put("username", username).put("passhash", master.passhash));
 	}
 
-	public void setMasterPass(char[] password) {
-		master.passhash = toBase64(hashPassword(password));
-		writeFile();
+	//false if the password couldn't be hashed or the change couldn't be journaled
+	public boolean setMasterPass(char[] password) {
+		String passhash = passhash(password);
+		return passhash != null && commit(record("master").put("username", master.username).put("passhash", passhash));
 	}
 
 	//change master username (requires authentication)
 	public void changeMasterUsername(String username, char[] password, String newUsername) {
 		if(checkMaster(username, password)) {
-			master.username = username;
-			writeFile();
+			commit(record("master").put("username", newUsername).put("passhash", master.passhash));
+			Sessions.revokeUser(username);
 		}
 	}
 
-	//change master password(requires authentication)
-	public void changeMasterPass(String username, char[] password, char[] newPass) {
-		if(checkMaster(username, password)) {
-			master.passhash = toBase64(hashPassword(newPass));
-			writeFile();
+	//change master password(requires authentication), true on success
+	public boolean changeMasterPass(String username, char[] password, char[] newPass) {
+		if(!checkMaster(username, password)) {
+			return false;
+		}
+		String passhash = passhash(newPass);
+		if(passhash == null || !commit(record("master").put("username", username).put("passhash", passhash))) {
+			return false;
 		}
+		Sessions.revokeUser(username);
+		return true;
 	}
 
-	//change a password for a user(requires authentication)
-	public void changePass(String username, char[] currentPass, char[] newPass) {
-		var user = getUser(username);
-		if(user == null) {
-			return;
+	//change a password for a user(requires authentication), true on success
+	public boolean changePass(String username, char[] currentPass, char[] newPass) {
+		if(!checkPassword(username, currentPass)) {
+			return false;
 		}
-
-		if(checkPassword(username, currentPass)) {
-			user.passhash = toBase64(hashPassword(newPass));
-			writeFile();
+		String passhash = passhash(newPass);
+		if(passhash == null || !commit(record("put").put("username", username).put("passhash", passhash))) {
+			return false;
 		}
+		Sessions.revokeUser(username);
+		return true;
 	}
 
 	//change username for a user(requires authentication)
 	public void changeUsername(String username, char[] currentPass, String newUsername) {
-		var user = getUser(username);
-		if(user == null) {
-			return;
-		}
-
 		if(checkPassword(username, currentPass)) {
-			user.username = newUsername;
-			writeFile();
+			synchronized(this) {
+				if(users.containsKey(username) && !users.containsKey(newUsername)) {
+					commit(record("rename").put("username", username).put("to", newUsername));
+				}
+			}
+			Sessions.revokeUser(username);
 		}
 	}
 
-	//adds a hash to the storage file returns true on success, false on collision
+	//adds a hash to the storage file returns true on success, false on collision or if the user couldn't be stored
 	public boolean addUser(String username, char[] password) {
-		if(!hasUser(username)) {
-			User current = new User();
-			current.username = username;
-			current.passhash = toBase64(hashPassword(password));
-			users.add(current);
-			writeFile();
-			return true;
+		if(hasUser(username)) {
+			return false;
 		}
 
-		return false;
+		//hash before taking the lock so other changes aren't held up for a whole KDF run
+		String passhash = passhash(password);
+		if(passhash == null) {
+			return false;
+		}
+		synchronized(this) {
+			if(hasUser(username)) {
+				return false;
+			}
+			return commit(record("put").put("username", username).put("passhash", passhash));
+		}
 	}
 
 	//remove a user (requires master authentication)
 	public void delUser(String username, String masterUsername, char[] masterPassword) {
-		var user = getUser(username);
-		if(user == null) {
+		if(!hasUser(username)) {
 			return;
 		}
 
 		if(checkMaster(masterUsername, masterPassword)) {
-			users.remove(user);
-			writeFile();
+			commit(record("delete").put("username", username));
+			Sessions.revokeUser(username);
 		}
 	}
 
 	//master password challenge
 	public boolean checkMaster(String username, char[] password) {
+		var master = this.master;
+		if(master.passhash.isEmpty()) {
+			return false;
+		}
 		var data = fromBase64(master.passhash);
 		boolean result = checkHash(password, data[0], data[1]);
 
@@ -138,6 +244,16 @@ public class Auth {
 		return false;
 	}
 
+	//hash a new password into its stored "hash,salt" form, null if it can't be hashed
+	private String passhash(char[] password) {
+		byte[][] passhash = hashPassword(password);
+		if(passhash == null) {
+			System.err.println("[MASTER]: Unable to hash password");
+			return null;
+		}
+		return toBase64(passhash);
+	}
+
 	//turn bytes to base64 encoded string
 	private String toBase64(byte[][] passhash) {
 		String hash = Base64.getEncoder().encodeToString(passhash[0]);
@@ -159,33 +275,131 @@ public class Auth {
 
 	//find a user based on username
 	private User getUser(String username) {
-		for(var user : users) {
-			if(user.username.equals(username)) {
-				return user;
+		return users.get(username);
+	}
+
+	//helper function to check if database already contains user
+	private boolean hasUser(String username) {
+		return users.containsKey(username);
+	}
+
+	/* JOURNAL
+	every change is appended to <file>.journal as one JSON line and synced before the call returns:
+		{"op": "master", "username", "passhash"}
+		{"op": "put", "username", "passhash"}
+		{"op": "rename", "username", "to"}
+		{"op": "delete", "username"}
+	compaction writes the whole store to a temporary file, renames it over the main file and empties the journal,
+	a crash at any point leaves either the old or the new file plus a journal that replays cleanly over it
+	 */
+
+	private static JSONObject record(String op) {
+		return new JSONObject().put("op", op);
+	}
+
+	//journal a change, then apply it to the store. false if it couldn't be journaled, the store is left unchanged
+	private synchronized boolean commit(JSONObject record) {
+		try {
+			if(journal == null) {
+				journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			}
+			ByteBuffer line = ByteBuffer.wrap((record.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+			while(line.hasRemaining()) {
+				journal.write(line);
 			}
+			journal.force(false);
+			journalRecords++;
+		} catch(IOException e) {
+			System.err.println("[MASTER]: Failed to write to auth file");
+			return false;
 		}
+		apply(record);
 
-		return null;
+		if(journalRecords > Math.max(COMPACT_AFTER, users.size())) {
+			compact();
+		}
+		return true;
 	}
 
-	//helper function to check if database already contains user
-	private boolean hasUser(String username) {
-		for(var user: users) {
-			if(user.username.equals(username)) {
-				return true;
+	private void apply(JSONObject record) {
+		String username = record.getString("username");
+		switch(record.getString("op")) {
+			case "master":
+				master = new User(username, record.getString("passhash"));
+				break;
+
+			case "put":
+				users.put(username, new User(username, record.getString("passhash")));
+				break;
+
+			case "rename": {
+				var user = users.remove(username);
+				if(user != null) {
+					String to = record.getString("to");
+					users.put(to, new User(to, user.passhash));
+				}
+				break;
 			}
+
+			case "delete":
+				users.remove(username);
+				break;
+		}
+	}
+
+	//apply whatever the journal holds on top of the main file, a torn last line (crash mid-write) is dropped
+	//anything left in the journal is folded in and the journal emptied, so the next record never lands after torn bytes
+	private void replayJournal() {
+		if(!Files.exists(journalFile)) {
+			return;
+		}
+
+		long length;
+		try(BufferedReader in = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+			length = Files.size(journalFile);
+			String line;
+			while((line = in.readLine()) != null) {
+				if(line.isBlank()) {
+					continue;
+				}
+				try {
+					apply(new JSONObject(line));
+					journalRecords++;
+				} catch(RuntimeException e) {
+					break;
+				}
+			}
+		} catch(IOException e) {
+			System.err.println("[MASTER]: Unable to read auth journal");
+			return;
+		}
+
+		if(length > 0) {
+			compact();
 		}
-		return false;
 	}
 
-	//this will overwrite the previous file on every new addition
-	private void writeFile() {
-		var toWrite = toJSON();
+	//fold the journal into the main file
+	private synchronized void compact() {
+		Path temporary = Paths.get(FilePath + ".tmp");
+		byte[] snapshot = toJSON().toString().getBytes(StandardCharsets.UTF_8);
 
 		try {
-			BufferedWriter out = new BufferedWriter(new FileWriter(FilePath));
-			out.write(toWrite.toString());
-			out.close();
+			try(FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+				while(buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+				out.force(true);
+			}
+			Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+			if(journal == null) {
+				journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			}
+			journal.truncate(0);
+			journal.force(true);
+			journalRecords = 0;
 		} catch(IOException e) {
 			System.err.println("[MASTER]: Failed to write to auth file");
 		}
@@ -194,11 +408,8 @@ public class Auth {
 	//read data from file into a JSON object
 	private JSONObject readFile() {
 		try {
-			BufferedReader in = new BufferedReader(new FileReader(FilePath));
-			String line = in.readLine();
-			var tokens = new JSONObject(line);
-			in.close();
-			return tokens;
+			String contents = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+			return new JSONObject(contents);
 		} catch(IOException e) {
 			System.err.println("[MASTER]: Unable to read auth file");
 		}
@@ -215,78 +426,149 @@ public class Auth {
 		return checkHash(password, data[0], data[1]);
 	}
 
-	//generate a password hash and salt value (for storage and later comparison)
+	//generate a password hash and salt value (for storage and later comparison), null if hashing fails
 	public byte[][] hashPassword(char[] password) {
-		SecureRandom rand = new SecureRandom();
-		byte[] salt = new byte[32];
-		rand.nextBytes(salt);
+		return onHasher(() -> {
+			byte[] salt = new byte[32];
+			random.get().nextBytes(salt);
 
-		//PBKDF2 with HMAC sha256 310,000 iterations (standard practice at the time of writing)
-		PBEKeySpec keySpec = new PBEKeySpec(password, salt, 310000, 256);
-		byte[] hash;
-		SecretKeyFactory secret;
+			byte[] hash = derive(password, salt);
+			if(hash == null) {
+				return null;
+			}
 
-		//generate password hash
-		try {
-			secret = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-			hash = secret.generateSecret(keySpec).getEncoded();
-		} catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
-			return null;
+			//return results in the format (hash,salt)
+			byte[][] toReturn = new byte[2][];
+			toReturn[0] = hash;
+			toReturn[1] = salt;
+			return toReturn;
+		});
+	}
+
+	public boolean checkHash(char[] password, byte[] passhash, byte[] salt) {
+		return onHasher(() -> matches(password, passhash, salt));
+	}
+
+	//check a login on the hashing pool without blocking the caller, true if it is the master or a user
+	//completes exceptionally with RejectedExecutionException if the hashing queue is full
+	public CompletableFuture<Boolean> verify(String username, char[] password) {
+		return CompletableFuture.supplyAsync(timed(() -> {
+			var master = this.master;
+			var user = username.equals(master.username) ? master : getUser(username);
+			if(user == null || user.passhash.isEmpty()) {
+				//hash anyway so unknown usernames take as long as known ones
+				derive(password, new byte[32]);
+				return false;
+			}
+			var data = fromBase64(user.passhash);
+			return matches(password, data[0], data[1]);
+		}), hasher);
+	}
+
+	//per address login budget, false if the address has used up its attempts
+	public static boolean admit(InetAddress address) {
+		if(address == null) {
+			return true;
 		}
 
-		//return results in the format (hash,salt)
-		byte[][] toReturn = new byte[2][];
-		toReturn[0] = hash;
-		toReturn[1] = salt;
-		return toReturn;
+		if(attempts.size() > MAX_TRACKED) {
+			long now = System.nanoTime();
+			attempts.values().removeIf(bucket -> bucket.idle(now));
+		}
+		if(attempts.computeIfAbsent(address, key -> new Bucket()).take()) {
+			return true;
+		}
+		limited.increment();
+		return false;
 	}
 
-	public boolean checkHash(char[] password, byte[] passhash, byte[] salt) {
-		//PBKDF2 with HMAC sha256 310,000 iterations (standard practice at the time of writing)
-		PBEKeySpec keySpec = new PBEKeySpec(password, salt, 310000, 256);
-		byte[] hash;
-		SecretKeyFactory secret;
+	//hashing pool queue depth, refusals and latencies as a JSON object
+	public static void writeMetrics(JsonWriter out) {
+		out.beginObject();
+		out.name("queued").value(hasher.getQueue().size());
+		out.name("active").value(hasher.getActiveCount());
+		out.name("rejected").value(rejected.sum());
+		out.name("admin-queued").value(adminHasher.getQueue().size());
+		out.name("rate-limited").value(limited.sum());
+		out.name("wait");
+		hashWait.write(out);
+		out.name("hash");
+		hashTime.write(out);
+		out.endObject();
+	}
 
-		//generate password hash
+	//PBKDF2 with HMAC sha256 310,000 iterations (standard practice at the time of writing)
+	private static byte[] derive(char[] password, byte[] salt) {
+		PBEKeySpec keySpec = new PBEKeySpec(password, salt, ITERATIONS, 256);
 		try {
-			secret = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-			hash = secret.generateSecret(keySpec).getEncoded();
-		} catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
-			return false;
+			return factory.get().generateSecret(keySpec).getEncoded();
+		} catch(InvalidKeySpecException e) {
+			return null;
+		} finally {
+			keySpec.clearPassword();
 		}
+	}
+
+	private static boolean matches(char[] password, byte[] passhash, byte[] salt) {
+		byte[] hash = derive(password, salt);
 
 		//check if password hashes match (hopefully mitigating timing attacks)
-		return MessageDigest.isEqual(hash, passhash);
+		return hash != null && MessageDigest.isEqual(hash, passhash);
+	}
+
+	//run admin hashing work on its own thread and wait for it, this never refuses work, callers block until their turn
+	//(IllegalStateException only if the caller is interrupted while waiting)
+	private static <T> T onHasher(Supplier<T> work) {
+		try {
+			return adminHasher.submit(timed(work)::get).get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while hashing");
+		} catch(ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	//record how long work waited for a hashing thread and how long it ran
+	private static <T> Supplier<T> timed(Supplier<T> work) {
+		long submitted = System.nanoTime();
+		return () -> {
+			long started = System.nanoTime();
+			hashWait.record(started - submitted);
+			try {
+				return work.get();
+			} finally {
+				hashTime.record(System.nanoTime() - started);
+			}
+		};
 	}
 
 	//deserialize from file
 	private void readData() {
 		var data = readFile();
-		master.username = data.getString("master-username");
-		master.passhash = data.getString("master-passhash");
+		if(data == null) {
+			return;
+		}
+		master = new User(data.getString("master-username"), data.getString("master-passhash"));
 
 		var users = data.getJSONArray("users");
 		for(int i = 0; i < users.length(); i++) {
 			var user = users.getJSONObject(i);
-
-			User current = new User();
-			current.username = user.getString("username");
-			current.passhash = user.getString("passhash");
-
-			//add user to the overall array
-			this.users.add(current);
+			String username = user.getString("username");
+			this.users.put(username, new User(username, user.getString("passhash")));
 		}
 	}
 
 	//this function is exposed for debugging purposes
 	public JSONObject toJSON() {
+		var master = this.master;
 		JSONObject toWrite = new JSONObject();
 		toWrite.put("master-username", master.username);
 		toWrite.put("master-passhash", master.passhash);
 
 		//add all users to array
 		JSONArray users = new JSONArray();
-		for(var user: this.users) {
+		for(var user: this.users.values()) {
 			JSONObject current = new JSONObject();
 			current.put("username", user.username);
 			current.put("passhash", user.passhash);
@@ -0,0 +1,132 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* BINARY FRAMING (negotiated with PREFACE as the first bytes of a connection, otherwise newline delimited JSON is used)
+
+preface: 'P' 'M' 'B' version(byte), the server answers with the version it will speak
+
+frame:
+	length: int (bytes after this field)
+	operation: byte code (0 = custom, followed by short length + utf-8 name)
+	type: byte code (0 = custom, followed by short length + utf-8 name)
+	object count: int
+	token: byte length + ascii session token (length 0 for none)
+	id: long (correlation id)
+	data: utf-8 JSON object text (rest of the frame, may contain newlines)
+ */
+
+//length prefixed binary encoding of Message
+public class BinaryCodec {
+	public static final byte VERSION = 1;
+	public static final byte[] PREFACE = {'P', 'M', 'B', VERSION};
+	public static final int HEADER = 4;
+
+	private static final String[] OPERATIONS = {null, "request", "response", "subscribe", "unsubscribe", "push"};
+	private static final String[] TYPES = {null, "process", "task", "system", "log", "log-dropped"};
+
+	//encode a message as a single frame
+	public static byte[] encode(Message message) {
+		byte[] data = message.dataBytes();
+		byte[] operation = custom(OPERATIONS, message.operation);
+		byte[] type = custom(TYPES, message.type);
+		byte[] token = message.token == null ? new byte[0] : message.token.getBytes(StandardCharsets.US_ASCII);
+		if(token.length > 255) {
+			throw new IllegalArgumentException("token too long");
+		}
+
+		int length = 1 + 1 + 4 + 1 + token.length + 8 + data.length;
+		if(operation != null) {
+			length += 2 + operation.length;
+		}
+		if(type != null) {
+			length += 2 + type.length;
+		}
+
+		ByteBuffer frame = ByteBuffer.allocate(HEADER + length);
+		frame.putInt(length);
+		putName(frame, OPERATIONS, message.operation, operation);
+		putName(frame, TYPES, message.type, type);
+		frame.putInt(message.count);
+		frame.put((byte) token.length);
+		frame.put(token);
+		frame.putLong(message.id);
+		frame.put(data);
+		return frame.array();
+	}
+
+	//decode the body of a frame (everything after the length field)
+	public static Message decode(ByteBuffer frame) {
+		String operation = getName(frame, OPERATIONS);
+		String type = getName(frame, TYPES);
+		int count = frame.getInt();
+		String token = getToken(frame);
+		long id = frame.getLong();
+
+		//data stays raw until something asks for it
+		byte[] data = null;
+		if(frame.hasRemaining()) {
+			data = new byte[frame.remaining()];
+			frame.get(data);
+		}
+		Message message = new Message(operation, type, count, token, data);
+		message.id = id;
+		return message;
+	}
+
+	//version requested by a client preface, -1 if the bytes aren't a preface
+	public static int version(byte[] preface) {
+		if(preface.length < PREFACE.length || preface[0] != 'P' || preface[1] != 'M' || preface[2] != 'B') {
+			return -1;
+		}
+		return preface[3];
+	}
+
+	private static String getToken(ByteBuffer frame) {
+		int length = frame.get() & 0xFF;
+		if(length == 0) {
+			return null;
+		}
+		byte[] token = new byte[length];
+		frame.get(token);
+		return new String(token, StandardCharsets.US_ASCII);
+	}
+
+	//utf-8 bytes of a name without a code, null if it has one
+	private static byte[] custom(String[] names, String name) {
+		return code(names, name) == 0 ? name.getBytes(StandardCharsets.UTF_8) : null;
+	}
+
+	private static int code(String[] names, String name) {
+		for(int i = 1; i < names.length; i++) {
+			if(names[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+	private static void putName(ByteBuffer frame, String[] names, String name, byte[] custom) {
+		if(custom == null) {
+			frame.put((byte) code(names, name));
+		} else {
+			frame.put((byte) 0);
+			frame.putShort((short) custom.length);
+			frame.put(custom);
+		}
+	}
+
+	private static String getName(ByteBuffer frame, String[] names) {
+		int code = frame.get() & 0xFF;
+		if(code != 0) {
+			if(code >= names.length) {
+				throw new IllegalArgumentException("unknown code " + code);
+			}
+			return names[code];
+		}
+
+		int length = frame.getShort() & 0xFFFF;
+		byte[] name = new byte[length];
+		frame.get(name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+}
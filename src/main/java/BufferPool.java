@@ -0,0 +1,32 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//shared pool of direct buffers for socket I/O, connections only hold a buffer while they are reading or writing
+public class BufferPool {
+	public static final int BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_POOLED = 1024;
+
+	private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger pooled = new AtomicInteger();
+
+	//borrow a cleared buffer
+	public static ByteBuffer take() {
+		ByteBuffer buffer = pool.poll();
+		if(buffer == null) {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		pooled.decrementAndGet();
+		return buffer;
+	}
+
+	//return a buffer, extras beyond the pool limit are left to the garbage collector
+	public static void give(ByteBuffer buffer) {
+		if(pooled.get() >= MAX_POOLED) {
+			return;
+		}
+		buffer.clear();
+		pool.add(buffer);
+		pooled.incrementAndGet();
+	}
+}
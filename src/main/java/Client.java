@@ -1,58 +1,547 @@
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-//TODO Connection manager
-//TODO - Communicate with client over protocol
-//TODO - Possibly custom message class to be re-implemented clientside as a protocol
 //TODO - Immediately reject any IP which provides an invalid token
 //TODO - Obfuscation of connection protocol to discourage port scanners
-//TODO - TLS sockets (essential for security)
-
-//TODO - generate token upon connection, used to identify unique client. If a user responds with the wrong token they are disconnected immediately
 
+//a single connection, driven by one of the server's selector loops
 public class Client {
-	private Socket remote;
-	OutputStream out = null;
-	BufferedReader in = null;
-	String username = null;
-	int token = 0;
-
-	//connection should already be accepted and authenticated from main by this point
-	Client(Socket remote, String username) {
+	private static final int MAX_LINE = 1024 * 1024;        //longest message accepted before the client is dropped
+	private static final int MAX_OUTBOUND = 8 * 1024 * 1024; //unsent bytes allowed before the client is dropped
+	private static final int HIGH_WATER = 1024 * 1024;       //unsent bytes at which producers are told to hold off
+	private static final int LOW_WATER = 256 * 1024;         //unsent bytes at which they may carry on
+	private static final int COPY_LIMIT = 4 * 1024;          //frames up to this size are copied into pooled buffers
+	private static final int MAX_GATHER = 64;                //buffers handed to one gathering write
+	private static final ByteBuffer[] NONE = new ByteBuffer[0];
+
+	private final SocketChannel remote;
+	private final Server.Loop loop;
+	private final Server server;
+	private volatile SelectionKey key = null;
+	private final TlsEngine tls; //null for plaintext connections
+	volatile String username = null; //set once the client has logged in
+
+	//wire format, decided by the first bytes the client sends
+	private enum Mode {UNKNOWN, JSON, BINARY}
+	private volatile Mode mode = Mode.UNKNOWN;
+
+	//part of a message that hasn't been completed yet
+	private byte[] partial = null;
+	private int partialLength = 0;
+
+	/*
+	output is queued by whoever produces it and written by the loop: small frames are copied into pooled buffers,
+	so everything queued before a flush leaves in one gathering write instead of a syscall per message
+	a flush runs on the loop's next pass (or after Main.State.writeLinger) and again whenever the socket is writable
+	 */
+	private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>(); //plaintext frames, ready to read
+	private final ArrayDeque<ByteBuffer> records = new ArrayDeque<>();  //TLS records wrapped from outbound
+	private ByteBuffer tail = null;     //pooled buffer at the end of outbound that still has room
+	private int outboundBytes = 0;      //queued bytes, plaintext and records
+	private boolean flushing = false;   //a flush is scheduled or the loop is waiting for the socket
+	private boolean backedUp = false;   //above HIGH_WATER, reads and log pushes are paused until LOW_WATER
+	private volatile boolean closed = false;
+
+	//log feeds this client is subscribed to, keyed by process name
+	private static final int SUBSCRIPTION_QUEUE = 4096;
+	private final Map<String, LogSubscription> subscriptions = new ConcurrentHashMap<>();
+
+	//connection should already be accepted by the server at this point
+	Client(SocketChannel remote, Server.Loop loop, Server server) throws IOException {
 		this.remote = remote;
-		this.username = username;
+		this.loop = loop;
+		this.server = server;
+		tls = server.getTlsContext() == null ? null : new TlsEngine(server.getTlsContext(), this, loop);
+
+		loop.execute(() -> {
+			try {
+				key = remote.register(loop.getSelector(), SelectionKey.OP_READ, this);
+				synchronized(outbound) {
+					interest(!outbound.isEmpty() || !records.isEmpty());
+				}
+			} catch(IOException e) {
+				System.err.println("[MASTER]: client failed to connect properly.");
+				close();
+			}
+		});
+	}
+
+	//remote address, null once the connection is gone
+	InetAddress getAddress() {
+		try {
+			var address = remote.getRemoteAddress();
+			return address instanceof InetSocketAddress ? ((InetSocketAddress) address).getAddress() : null;
+		} catch(IOException e) {
+			return null;
+		}
+	}
+
+	//socket is readable, called on the loop thread
+	void onRead() {
+		if(tls != null) {
+			try {
+				if(remote.read(tls.inbound()) < 0) {
+					close();
+					return;
+				}
+				received(tls.unwrap());
+			} catch(IOException e) {
+				close();
+			}
+			return;
+		}
 
+		ByteBuffer buffer = BufferPool.take();
 		try {
-			out = remote.getOutputStream();
-			in = new BufferedReader( new InputStreamReader(remote.getInputStream()));
+			int read = remote.read(buffer);
+			if(read < 0) {
+				close();
+				return;
+			}
+
+			buffer.flip();
+			received(buffer);
 		} catch(IOException e) {
-			System.err.println("[MASTER]: client failed to connect properly.");
+			close();
+		} finally {
+			BufferPool.give(buffer);
+		}
+	}
+
+	//the TLS handshake pool finished a step, carry on with whatever was read meanwhile (loop thread)
+	void resumeTls() {
+		if(closed) {
+			return;
+		}
+		try {
+			received(tls.unwrap());
+		} catch(IOException e) {
+			close();
+		}
+	}
+
+	//plaintext from the connection
+	private void received(ByteBuffer buffer) {
+		if(!buffer.hasRemaining()) {
+			return;
+		}
+		if(mode == Mode.UNKNOWN) {
+			negotiate(buffer);
+		}
+		if(mode == Mode.JSON) {
+			splitLines(buffer);
+		} else if(mode == Mode.BINARY) {
+			splitFrames(buffer);
+		}
+	}
+
+	//hand every complete line to the message queue, keep the remainder for the next read
+	private void splitLines(ByteBuffer buffer) {
+		int start = buffer.position();
+		for(int i = start; i < buffer.limit(); i++) {
+			if(buffer.get(i) != '\n') {
+				continue;
+			}
+
+			//messages are decoded straight from the bytes, no intermediate String
+			if(partialLength > 0) {
+				append(buffer, start, i - start);
+				received(partial, partialLength);
+				partialLength = 0;
+				partial = null;
+			} else {
+				byte[] bytes = new byte[i - start];
+				buffer.get(start, bytes);
+				received(bytes, bytes.length);
+			}
+			start = i + 1;
+		}
+
+		if(start < buffer.limit()) {
+			append(buffer, start, buffer.limit() - start);
+			if(partialLength > MAX_LINE) {
+				System.err.println("[MASTER]: client sent an oversized message, disconnecting.");
+				close();
+			}
+		}
+	}
+
+	//binary clients open with BinaryCodec.PREFACE, anything else is treated as newline delimited JSON
+	private void negotiate(ByteBuffer buffer) {
+		if(partialLength == 0 && buffer.get(buffer.position()) != BinaryCodec.PREFACE[0]) {
+			mode = Mode.JSON;
+			return;
+		}
+
+		//wait until the whole preface has arrived
+		int needed = BinaryCodec.PREFACE.length - partialLength;
+		int take = Math.min(needed, buffer.remaining());
+		append(buffer, buffer.position(), take);
+		buffer.position(buffer.position() + take);
+		if(partialLength < BinaryCodec.PREFACE.length) {
+			return;
+		}
+
+		byte[] preface = new byte[BinaryCodec.PREFACE.length];
+		System.arraycopy(partial, 0, preface, 0, preface.length);
+		partial = null;
+		partialLength = 0;
+
+		int version = BinaryCodec.version(preface);
+		if(version < 1) {
+			System.err.println("[MASTER]: client sent an unknown preface, disconnecting.");
+			close();
+			return;
+		}
+
+		//answer with the version the server will speak
+		mode = Mode.BINARY;
+		byte[] answer = BinaryCodec.PREFACE.clone();
+		answer[3] = (byte) Math.min(version, BinaryCodec.VERSION);
+		write(answer);
+	}
+
+	//decode every complete length prefixed frame, keep the remainder for the next read
+	private void splitFrames(ByteBuffer buffer) {
+		ByteBuffer source = buffer;
+		if(partialLength > 0) {
+			append(buffer, buffer.position(), buffer.remaining());
+			source = ByteBuffer.wrap(partial, 0, partialLength);
+		}
+
+		while(source.remaining() >= BinaryCodec.HEADER) {
+			int length = source.getInt(source.position());
+			if(length < 10 || length > MAX_LINE) {
+				System.err.println("[MASTER]: client sent an invalid frame, disconnecting.");
+				close();
+				return;
+			}
+			if(source.remaining() < BinaryCodec.HEADER + length) {
+				break;
+			}
+
+			ByteBuffer frame = source.duplicate();
+			frame.position(source.position() + BinaryCodec.HEADER).limit(source.position() + BinaryCodec.HEADER + length);
+			source.position(source.position() + BinaryCodec.HEADER + length);
+			try {
+				long started = System.nanoTime();
+				Message message = BinaryCodec.decode(frame);
+				Dispatcher.decode.record(System.nanoTime() - started);
+				received(message);
+			} catch(RuntimeException e) {
+				System.err.println("[MASTER]: malformed frame from client: " + e.getMessage());
+			}
 		}
 
-		new Thread(this::listenThread).start();
+		//keep whatever is left of an unfinished frame
+		int left = source.remaining();
+		if(source == buffer) {
+			if(left > 0) {
+				append(buffer, buffer.position(), left);
+			}
+		} else if(left == 0) {
+			partial = null;
+			partialLength = 0;
+		} else {
+			System.arraycopy(partial, source.position(), partial, 0, left);
+			partialLength = left;
+		}
+	}
+
+	private void append(ByteBuffer buffer, int from, int length) {
+		if(partial == null) {
+			partial = new byte[Math.max(256, length)];
+		} else if(partialLength + length > partial.length) {
+			byte[] grown = new byte[Math.max(partial.length * 2, partialLength + length)];
+			System.arraycopy(partial, 0, grown, 0, partialLength);
+			partial = grown;
+		}
+		buffer.get(from, partial, partialLength, length);
+		partialLength += length;
 	}
 
-	//read input from socket
-	public void listenThread() {
+	private void received(byte[] msg, int length) {
+		int start = 0;
+		while(start < length && Character.isWhitespace(msg[start])) {
+			start++;
+		}
+		if(start == length) {
+			return;
+		}
+
 		try {
-			String msg = null;
-			while ((msg = in.readLine()) != null) {
-				System.out.println("Input recieved from client: " + msg);
-				Main.State.messageQueue.add(new Message(msg));
+			long started = System.nanoTime();
+			Message message = new Message(msg, start, length - start);
+			Dispatcher.decode.record(System.nanoTime() - started);
+			received(message);
+		} catch(RuntimeException e) {
+			//JSONException, the message doesn't follow the protocol
+			System.err.println("[MASTER]: malformed message from client: " + e.getMessage());
+		}
+	}
+
+	private void received(Message message) {
+		message.source = this;
+		Dispatcher.dispatch(message);
+	}
+
+	//socket can take more data, called on the loop thread
+	void onWrite() {
+		flush();
+	}
+
+	//start pushing a process's new log entries to this client
+	public void subscribe(Proc proc) {
+		subscriptions.computeIfAbsent(proc.getName(), name -> {
+			var subscription = proc.subscribe(this::send, SUBSCRIPTION_QUEUE, LogSubscription.Overflow.DROP_OLDEST);
+			synchronized(outbound) {
+				if(backedUp) {
+					subscription.pause();
+				}
 			}
-		} catch (IOException e) {
-			//force close on failure to read?
+			return subscription;
+		});
+	}
+
+	public void unsubscribe(Proc proc) {
+		var subscription = subscriptions.remove(proc.getName());
+		if(subscription != null) {
+			proc.unsubscribe(subscription);
+		}
+	}
+
+	//send a message in whichever format this client negotiated
+	public void send(Message message) {
+		write(encode(message));
+	}
+
+	//queue a response, responses that complete before the next flush go out together
+	public void reply(Message response) {
+		send(response);
+	}
+
+	//send several messages in one go
+	public void send(List<Message> messages) {
+		ByteBuffer[] frames = new ByteBuffer[messages.size()];
+		for(int i = 0; i < frames.length; i++) {
+			frames[i] = ByteBuffer.wrap(encode(messages.get(i)));
 		}
+		write(frames);
+	}
+
+	private byte[] encode(Message message) {
+		return mode == Mode.BINARY ? message.encodeBinary() : message.encode();
 	}
 
 	//write output to socket
-	public synchronized void write(String toSend) {
+	public void write(String toSend) {
+		write(toSend.getBytes(StandardCharsets.UTF_8));
+	}
+
+	//write an already encoded frame, it goes out with the next flush
+	public void write(byte[] toSend) {
+		write(new ByteBuffer[] {ByteBuffer.wrap(toSend)});
+	}
+
+	//queue frames and make sure a flush is on its way, never touches the socket
+	void write(ByteBuffer[] frames) {
+		if(closed) {
+			return;
+		}
+
+		boolean overflow;
+		synchronized(outbound) {
+			for(var frame : frames) {
+				queue(frame);
+			}
+			overflow = outboundBytes > MAX_OUTBOUND;
+		}
+		if(overflow) {
+			System.err.println("[MASTER]: client is not reading its messages, disconnecting.");
+			close();
+			return;
+		}
+
+		synchronized(outbound) {
+			if(!backedUp && outboundBytes > HIGH_WATER) {
+				backedUp = true;
+				subscriptions.values().forEach(LogSubscription::pause);
+				interest(true);
+			}
+
+			if(flushing) {
+				return;
+			}
+			flushing = true;
+		}
+
+		Duration linger = Main.State.writeLinger;
+		if(linger.isZero()) {
+			loop.execute(this::flush);
+		} else {
+			Scheduler.schedule(linger, () -> loop.execute(this::flush));
+		}
+	}
+
+	//true while the client is behind on reading its output, producers that can wait should
+	public boolean isBackedUp() {
+		synchronized(outbound) {
+			return backedUp;
+		}
+	}
+
+	private void queue(ByteBuffer frame) {
+		int length = frame.remaining();
+		if(length == 0) {
+			return;
+		}
+
+		if(length > COPY_LIMIT) {
+			outbound.add(frame);
+			tail = null;
+		} else {
+			if(tail == null || tail.capacity() - tail.limit() < length) {
+				tail = BufferPool.take();
+				tail.limit(0);
+				outbound.add(tail);
+			}
+			int end = tail.limit();
+			tail.limit(end + length);
+			tail.put(end, frame, frame.position(), length);
+		}
+		outboundBytes += length;
+	}
+
+	//write as much queued output as the socket takes, loop thread only
+	void flush() {
+		boolean failed = false;
+		synchronized(outbound) {
+			if(closed) {
+				return;
+			}
+
+			try {
+				ArrayDeque<ByteBuffer> pending = outbound;
+				if(tls != null) {
+					int before = remaining(outbound);
+					for(var record : tls.wrap(outbound.toArray(NONE))) {
+						records.add(record);
+						outboundBytes += record.remaining();
+					}
+					outboundBytes -= before - remaining(outbound);
+					release(outbound);
+					pending = records;
+				}
+
+				while(!pending.isEmpty()) {
+					ByteBuffer[] batch = pending.stream().limit(MAX_GATHER).toArray(ByteBuffer[]::new);
+					long written = remote.write(batch);
+					outboundBytes -= written;
+					release(pending);
+					if(written == 0 || (!pending.isEmpty() && pending.peek() == batch[0])) {
+						break;
+					}
+				}
+
+				boolean waiting = !pending.isEmpty();
+				flushing = waiting;
+				if(backedUp && outboundBytes < LOW_WATER) {
+					backedUp = false;
+					subscriptions.values().forEach(LogSubscription::resume);
+				}
+				interest(waiting);
+			} catch(IOException e) {
+				failed = true;
+			}
+		}
+
+		//close takes the client's lock, never while holding outbound
+		if(failed) {
+			close();
+		}
+	}
+
+	//drop fully written buffers from the front of a queue, pooled ones go back to the pool
+	private void release(ArrayDeque<ByteBuffer> queue) {
+		while(!queue.isEmpty() && !queue.peek().hasRemaining()) {
+			ByteBuffer done = queue.poll();
+			if(done == tail) {
+				tail = null;
+			}
+			if(done.isDirect()) {
+				BufferPool.give(done);
+			}
+		}
+	}
+
+	private static int remaining(ArrayDeque<ByteBuffer> queue) {
+		int total = 0;
+		for(var buffer : queue) {
+			total += buffer.remaining();
+		}
+		return total;
+	}
+
+	//read unless backed up, wait for writable while output is stuck
+	private void interest(boolean writable) {
+		if(key != null && key.isValid()) {
+			key.interestOps((backedUp ? 0 : SelectionKey.OP_READ) | (writable ? SelectionKey.OP_WRITE : 0));
+			loop.wakeup();
+		}
+	}
+
+	//drop the connection and everything attached to it
+	public synchronized void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+
+		for(var subscription : subscriptions.values()) {
+			subscription.close();
+		}
+		subscriptions.clear();
+
 		try {
-			out.write(toSend.getBytes(StandardCharsets.US_ASCII));
-			out.flush();
+			if(key != null) {
+				key.cancel();
+			}
+			synchronized(outbound) {
+				if(tls != null && records.isEmpty()) {
+					remote.write(tls.close());
+				}
+				drop(outbound);
+				drop(records);
+				tail = null;
+			}
+			remote.close();
 		} catch(IOException e) {
-			//force close on failure to write?
+			//already closed
 		}
+		server.disconnected();
+	}
+
+	private static void drop(ArrayDeque<ByteBuffer> queue) {
+		for(var buffer : queue) {
+			if(buffer.isDirect()) {
+				BufferPool.give(buffer);
+			}
+		}
+		queue.clear();
+	}
+
+	public boolean isClosed() {
+		return closed;
 	}
 }
@@ -0,0 +1,186 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/* FILE STRUCTURE (.segz)
+   blocks: deflate streams, each holding whole records and at most BLOCK_BYTES of raw data
+   seek table: one entry per block
+   	raw offset: int (offset of the block's first record in the original .seg file)
+   	raw length: int
+   	offset: int (position of the compressed block in this file)
+   	length: int (compressed size)
+   footer:
+   	block count: int
+   	magic: int
+ */
+
+//block compressed copy of a sealed history segment, each block inflates on its own so reads only touch what they need
+public class CompressedSegment {
+	static final int BLOCK_BYTES = 64 * 1024;
+	private static final int MAGIC = 0x504d535a;
+	private static final int TABLE_ENTRY = 16;
+
+	//last block that was inflated, searches read blocks in order so one is enough
+	private static final class Block {
+		final int number;
+		final byte[] raw;
+
+		Block(int number, byte[] raw) {
+			this.number = number;
+			this.raw = raw;
+		}
+	}
+
+	private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+	private final MappedByteBuffer file;
+	private final int[] rawOffsets;
+	private final int[] rawLengths;
+	private final int[] offsets;
+	private final int[] lengths;
+	private volatile Block last = null;
+
+	//open a compressed segment and load its seek table
+	CompressedSegment(File path) throws IOException {
+		try(var in = new RandomAccessFile(path, "r")) {
+			file = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+		}
+
+		int end = file.capacity();
+		if(end < 8 || file.getInt(end - 4) != MAGIC) {
+			throw new IOException("corrupt compressed segment " + path.getName());
+		}
+		int blocks = file.getInt(end - 8);
+		int table = end - 8 - blocks * TABLE_ENTRY;
+
+		rawOffsets = new int[blocks];
+		rawLengths = new int[blocks];
+		offsets = new int[blocks];
+		lengths = new int[blocks];
+		for(int i = 0; i < blocks; i++) {
+			int at = table + i * TABLE_ENTRY;
+			rawOffsets[i] = file.getInt(at);
+			rawLengths[i] = file.getInt(at + 4);
+			offsets[i] = file.getInt(at + 8);
+			lengths[i] = file.getInt(at + 12);
+		}
+	}
+
+	//compress a sealed segment, index holds the (offset, length) of every record so blocks split on record boundaries
+	static void write(File path, ByteBuffer data, ByteBuffer index, int count, int indexEntry) throws IOException {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		byte[] raw = new byte[BLOCK_BYTES];
+		byte[] packed = new byte[BLOCK_BYTES + BLOCK_BYTES / 8 + 64];
+		ByteBuffer table = ByteBuffer.allocate(Math.max(1, count) * TABLE_ENTRY);
+		int blocks = 0;
+
+		try(var out = new RandomAccessFile(path, "rw")) {
+			out.setLength(0);
+			int position = 0;
+			int entry = 0;
+
+			while(entry < count) {
+				//collect whole records until the next one would overflow the block
+				int blockStart = index.getInt(entry * indexEntry + 8);
+				int blockEnd = blockStart;
+				while(entry < count) {
+					int offset = index.getInt(entry * indexEntry + 8);
+					int length = index.getInt(entry * indexEntry + 12);
+					if(offset + length - blockStart > BLOCK_BYTES && blockEnd > blockStart) {
+						break;
+					}
+					blockEnd = offset + length;
+					entry++;
+				}
+
+				int rawLength = blockEnd - blockStart;
+				byte[] source = rawLength <= raw.length ? raw : new byte[rawLength];
+				data.get(blockStart, source, 0, rawLength);
+
+				deflater.reset();
+				deflater.setInput(source, 0, rawLength);
+				deflater.finish();
+				int written = 0;
+				while(!deflater.finished()) {
+					if(written == packed.length) {
+						byte[] grown = new byte[packed.length * 2];
+						System.arraycopy(packed, 0, grown, 0, written);
+						packed = grown;
+					}
+					written += deflater.deflate(packed, written, packed.length - written);
+				}
+				out.write(packed, 0, written);
+
+				table.putInt(blockStart).putInt(rawLength).putInt(position).putInt(written);
+				position += written;
+				blocks++;
+			}
+
+			out.write(table.array(), 0, blocks * TABLE_ENTRY);
+			out.writeInt(blocks);
+			out.writeInt(MAGIC);
+			out.getFD().sync();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	//a record from the original segment, only its block is inflated
+	public ByteBuffer record(int offset, int length) {
+		Block block = block(find(offset));
+		return ByteBuffer.wrap(block.raw, offset - rawOffsets[block.number], length);
+	}
+
+	//compressed size on disk
+	public int size() {
+		return file.capacity();
+	}
+
+	//binary search for the block holding a raw offset
+	private int find(int offset) {
+		int low = 0;
+		int high = rawOffsets.length - 1;
+		while(low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if(rawOffsets[mid] <= offset) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	private Block block(int number) {
+		Block cached = last;
+		if(cached != null && cached.number == number) {
+			return cached;
+		}
+
+		byte[] packed = new byte[lengths[number]];
+		file.get(offsets[number], packed);
+		byte[] raw = new byte[rawLengths[number]];
+
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(packed);
+		try {
+			int read = 0;
+			while(read < raw.length && !inflater.finished()) {
+				read += inflater.inflate(raw, read, raw.length - read);
+			}
+		} catch(DataFormatException e) {
+			throw new IllegalStateException("corrupt compressed block " + number, e);
+		}
+
+		cached = new Block(number, raw);
+		last = cached;
+		return cached;
+	}
+}
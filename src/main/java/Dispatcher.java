@@ -0,0 +1,200 @@
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/* PIPELINE
+decode: on the client's selector loop (Client), timed per message
+check: everything except a login must carry a live session token (see Sessions), checked in O(1) on the loop
+route: each object of a request goes to the lane of the process it targets, so operations on one process run in
+       the order they arrived while different processes run in parallel, objects without a process (system
+       requests such as login) go straight to the worker pool
+execute: lanes run on a fixed worker pool, slow work (spawning processes) never blocks the selector loops
+respond: once every object of a request is done the response is handed back to the client's loop
+ */
+
+//routes decoded requests to the worker pool while keeping per-process ordering
+public class Dispatcher {
+	private static final int LANES = 256;
+	private static final int MAX_PENDING = 65536; //objects allowed in flight before new requests are refused
+
+	//latency totals for one pipeline stage
+	public static class Stage {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+
+		void record(long nanos) {
+			count.increment();
+			total.add(nanos);
+			max.accumulateAndGet(nanos, Math::max);
+		}
+
+		public void write(JsonWriter out) {
+			long samples = count.sum();
+			out.beginObject();
+			out.name("count").value(samples);
+			out.name("mean-us").value(samples == 0 ? 0 : total.sum() / samples / 1000);
+			out.name("max-us").value(max.get() / 1000);
+			out.endObject();
+		}
+	}
+
+	//runs its tasks one at a time, in order, on the worker pool
+	private static class Lane implements Runnable, Executor {
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		public void execute(Runnable task) {
+			tasks.add(task);
+			if(scheduled.compareAndSet(false, true)) {
+				workers.execute(this);
+			}
+		}
+
+		public void run() {
+			Runnable task;
+			while((task = tasks.poll()) != null) {
+				task.run();
+			}
+			scheduled.set(false);
+
+			//a task may have been added after the last poll but before scheduled was cleared
+			if(!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+				workers.execute(this);
+			}
+		}
+	}
+
+	//a request whose objects are still being executed
+	private static class Pending {
+		final Message request;
+		final byte[][] results;
+		final AtomicInteger remaining;
+
+		Pending(Message request, int objects) {
+			this.request = request;
+			results = new byte[objects][];
+			remaining = new AtomicInteger(objects);
+		}
+	}
+
+	public static final Stage decode = new Stage();
+	public static final Stage queued = new Stage();
+	public static final Stage execute = new Stage();
+	public static final Stage respond = new Stage();
+
+	private static final ExecutorService workers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() * 2), task -> {
+		Thread thread = new Thread(task, "dispatch-worker");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final Lane[] lanes = new Lane[LANES];
+	private static final AtomicInteger pending = new AtomicInteger();
+
+	static {
+		for(int i = 0; i < LANES; i++) {
+			lanes[i] = new Lane();
+		}
+	}
+
+	//route a decoded request, called on the client's selector loop
+	public static void dispatch(Message request) {
+		List<JsonReader> objects;
+		try {
+			objects = request.objects();
+		} catch(RuntimeException e) {
+			request.source.reply(Handler.response(request, new byte[][] {Handler.error(e.getMessage())}));
+			return;
+		}
+
+		boolean login = Handler.isLogin(request, objects);
+		if(!login && Sessions.validate(request.token) == null) {
+			request.source.reply(Handler.response(request, new byte[][] {Handler.error("invalid or expired session, log in again")}));
+			return;
+		}
+
+		if(pending.get() + objects.size() > MAX_PENDING) {
+			request.source.reply(Handler.response(request, new byte[][] {Handler.error("server is busy, try again")}));
+			return;
+		}
+		pending.addAndGet(objects.size());
+
+		if(objects.isEmpty()) {
+			complete(new Pending(request, 0), System.nanoTime());
+			return;
+		}
+
+		Pending state = new Pending(request, objects.size());
+
+		//password checks run on Auth's hashing pool, a worker never waits on one
+		if(login) {
+			for(int i = 0; i < objects.size(); i++) {
+				final int index = i;
+				final long started = System.nanoTime();
+				Handler.login(request, objects.get(i)).thenAccept(result -> finish(state, index, result, started));
+			}
+			return;
+		}
+
+		for(int i = 0; i < objects.size(); i++) {
+			final int index = i;
+			final JsonReader object = objects.get(i);
+			final long routed = System.nanoTime();
+
+			lane(Handler.target(request, object)).execute(() -> {
+				long started = System.nanoTime();
+				queued.record(started - routed);
+				finish(state, index, Handler.handleObject(request, object), started);
+			});
+		}
+	}
+
+	private static void finish(Pending state, int index, byte[] result, long started) {
+		state.results[index] = result;
+		pending.decrementAndGet();
+
+		long finished = System.nanoTime();
+		execute.record(finished - started);
+		if(state.remaining.decrementAndGet() == 0) {
+			complete(state, finished);
+		}
+	}
+
+	//objects waiting for or being executed
+	public static int getPending() {
+		return pending.get();
+	}
+
+	//queue depth and stage latencies as a JSON object
+	public static void writeMetrics(JsonWriter out) {
+		out.beginObject();
+		out.name("pending").value(pending.get());
+		out.name("decode");
+		decode.write(out);
+		out.name("queued");
+		queued.write(out);
+		out.name("execute");
+		execute.write(out);
+		out.name("respond");
+		respond.write(out);
+		out.endObject();
+	}
+
+	private static void complete(Pending state, long finished) {
+		Message response = Handler.response(state.request, state.results);
+		state.request.source.reply(response);
+		respond.record(System.nanoTime() - finished);
+	}
+
+	//lane keeping a process's objects in order, unordered objects run on any worker
+	private static Executor lane(String process) {
+		if(process == null) {
+			return workers;
+		}
+		return lanes[(process.hashCode() & 0x7fffffff) % LANES];
+	}
+}
@@ -0,0 +1,631 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/* REQUESTS
+every request except login carries the session token returned by login, requests without a valid one are refused
+every request carries one object in data, or a batch of "object count" objects as data: {"objects": [...]}
+the response echoes the request's id and has one result per object, in order: data: {"results": [...]}
+each result is {"ok": true, ...} or {"ok": false, "error": reason}
+
+Process objects:
+	name: process name
+	action: create (args, auto-restart, tasks as in Proc.serialize(), history settings as below) / start / stop / restart /
+	        signal (signal) / status / log (since)
+	action: configure-history (history, search-index, compress-history: booleans, leaving one out keeps its setting)
+	        history keeps every line in <name>.history next to the logfile, the others speed up search and save disk
+	action: history (line, or at: ISO local time, count: default 1000), result: {first, next, lines}
+	        reads the stored history from the given line (the oldest one still on disk if omitted or gone)
+	action: search (after, before: ISO local times, info: [tags, "" for untagged], contains, regex, limit: default 1000)
+	        result: {lines}, searches the history, or the in-memory log when history is off
+	status also reports output drained from the child but not logged yet: output: {buffered, spills, spilled-bytes}
+	and, when the process has an output limit, what it held back: limit: {dropped-lines, dropped-bytes, sampled, collapsed}
+	and how auto-restart is going: supervisor: {restarts, recent (within the window), pending (backing off), given-up}
+
+Task objects:
+	process: process name
+	action: add (task: Task record) / remove (name) / reschedule (name, elapse-time)
+
+System objects:
+	action: list / metrics (dispatch queue depth and stage latencies, password hashing queue and latencies,
+	        TLS handshake counts)
+	action: login (username, password), result: {"ok": true, "token": session token, "expires": seconds}
+	        logins are limited per address and refused while the password hashing queue is full
+	action: logout, ends the session the request was sent with
+
+Subscribe/Unsubscribe objects (any type):
+	name: process name
+ */
+
+//executes client requests against the managed processes
+public class Handler {
+	private static final String[] PROCESS_FIELDS = {"name", "action", "signal", "args", "auto-restart", "tasks", "since",
+			"history", "search-index", "compress-history", "line", "count", "at", "after", "before", "info", "contains",
+			"regex", "limit"};
+	private static final String[] TASK_FIELDS = {"process", "action", "task", "name", "elapse-time"};
+	private static final String[] SYSTEM_FIELDS = {"action", "username", "password"};
+	private static final String[] NAME_FIELDS = {"name"};
+
+	//build the response to a request from the result of each of its objects
+	public static Message response(Message request, byte[][] results) {
+		JsonWriter data = new JsonWriter();
+		data.beginObject().name("results").beginArray();
+		for(var result : results) {
+			data.raw(result, 0, result.length);
+		}
+		data.endArray().endObject();
+
+		Message response = new Message("response", request.type, results.length, null, data.toBytes());
+		response.id = request.id;
+		return response;
+	}
+
+	//process an object targets (used by Dispatcher to keep operations on one process in order), null for none
+	public static String target(Message message, JsonReader object) {
+		boolean request = message.operation.equalsIgnoreCase("request");
+		if(request && message.type.equalsIgnoreCase("system")) {
+			return null;
+		}
+		String field = request && message.type.equalsIgnoreCase("task") ? "process" : "name";
+		return peek(object, field);
+	}
+
+	//true if every object of the request is a login, the only thing allowed without a session
+	public static boolean isLogin(Message message, List<JsonReader> objects) {
+		if(objects.isEmpty() || !message.operation.equalsIgnoreCase("request") || !message.type.equalsIgnoreCase("system")) {
+			return false;
+		}
+		for(var object : objects) {
+			if(!"login".equals(peek(object, "action"))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//string field of an object, read on a copy so the object can still be read from the start
+	private static String peek(JsonReader object, String field) {
+		JsonReader peek = object.copy();
+		String[] fields = {field};
+		try {
+			peek.beginObject();
+			while(peek.hasNext()) {
+				if(peek.selectName(fields) == 0) {
+					return peek.nextString();
+				}
+				peek.skipValue();
+			}
+		} catch(RuntimeException e) {
+			//malformed object, handleObject will report it
+		}
+		return null;
+	}
+
+	//execute a single object, errors are turned into a failed result
+	public static byte[] handleObject(Message request, JsonReader object) {
+		try {
+			return execute(request, object);
+		} catch(RuntimeException e) {
+			return error(e.getMessage() != null ? e.getMessage() : e.toString());
+		}
+	}
+
+	private static byte[] execute(Message request, JsonReader object) {
+		switch(request.operation.toLowerCase()) {
+			case "subscribe":
+				request.source.subscribe(find(name(object)));
+				return ok();
+
+			case "unsubscribe":
+				request.source.unsubscribe(find(name(object)));
+				return ok();
+
+			case "request":
+				break;
+
+			default:
+				return error("unknown operation: " + request.operation);
+		}
+
+		switch(request.type.toLowerCase()) {
+			case "process":
+				return process(object);
+
+			case "task":
+				return task(object);
+
+			case "system":
+				return system(request, object);
+
+			default:
+				return error("unknown type: " + request.type);
+		}
+	}
+
+	private static byte[] process(JsonReader object) {
+		String name = null;
+		String action = null;
+		String signal = null;
+		List<String> args = new ArrayList<>();
+		boolean autoRestart = false;
+		List<Task> tasks = new ArrayList<>();
+		long since = 0;
+		Boolean history = null;
+		Boolean searchIndex = null;
+		Boolean compressHistory = null;
+		long line = -1;
+		int count = 1000;
+		LocalDateTime at = null;
+		LogQuery.Builder query = LogQuery.Builder.newInstance();
+
+		object.beginObject();
+		while(object.hasNext()) {
+			switch(object.selectName(PROCESS_FIELDS)) {
+				case 0:
+					name = object.nextString();
+					break;
+
+				case 1:
+					action = object.nextString();
+					break;
+
+				case 2:
+					signal = object.nextString();
+					break;
+
+				case 3:
+					object.beginArray();
+					while(object.hasNext()) {
+						args.add(object.nextString());
+					}
+					object.endArray();
+					break;
+
+				case 4:
+					autoRestart = object.nextBoolean();
+					break;
+
+				case 5:
+					object.beginArray();
+					while(object.hasNext()) {
+						tasks.add(new Task(object));
+					}
+					object.endArray();
+					break;
+
+				case 6:
+					since = object.nextLong();
+					break;
+
+				case 7:
+					history = object.nextBoolean();
+					break;
+
+				case 8:
+					searchIndex = object.nextBoolean();
+					break;
+
+				case 9:
+					compressHistory = object.nextBoolean();
+					break;
+
+				case 10:
+					line = object.nextLong();
+					break;
+
+				case 11:
+					count = object.nextInt();
+					break;
+
+				case 12:
+					at = LocalDateTime.parse(object.nextString());
+					break;
+
+				case 13:
+					query.after(LocalDateTime.parse(object.nextString()));
+					break;
+
+				case 14:
+					query.before(LocalDateTime.parse(object.nextString()));
+					break;
+
+				case 15: {
+					List<String> tags = new ArrayList<>();
+					object.beginArray();
+					while(object.hasNext()) {
+						tags.add(object.nextString());
+					}
+					object.endArray();
+					query.info(tags.toArray(new String[0]));
+					break;
+				}
+
+				case 16:
+					query.contains(object.nextString());
+					break;
+
+				case 17:
+					query.regex(object.nextString());
+					break;
+
+				case 18:
+					query.limit(object.nextInt());
+					break;
+
+				default:
+					object.skipValue();
+					break;
+			}
+		}
+		object.endObject();
+
+		if(name == null || action == null) {
+			return error("process requests need a name and an action");
+		}
+
+		if(action.equals("create")) {
+			if(args.isEmpty()) {
+				return error("no program given for " + name);
+			}
+
+			Proc proc = new Proc(name, args.get(0), args.subList(1, args.size()).toArray(new String[0]));
+			if(Main.State.processes.putIfAbsent(name, proc) != null) {
+				return error("process already exists: " + name);
+			}
+			if(autoRestart) {
+				proc.enableAutorestart();
+			}
+			configureHistory(proc, history, searchIndex, compressHistory);
+			for(var task : tasks) {
+				proc.addTask(task);
+			}
+			return ok();
+		}
+
+		Proc proc = find(name);
+		switch(action) {
+			case "start":
+				proc.start();
+				return ok();
+
+			case "stop":
+				proc.stop();
+				return ok();
+
+			case "restart":
+				proc.restart();
+				return ok();
+
+			case "signal":
+				if(signal == null) {
+					return error("no signal given");
+				}
+				proc.sendSignal(signal);
+				return ok();
+
+			case "status": {
+				JsonWriter out = new JsonWriter();
+				out.beginObject().name("ok").value(true).name("running").value(proc.isRunning());
+				out.name("output").beginObject();
+				out.name("buffered").value(proc.getBufferedOutput());
+				out.name("spills").value(proc.getOutputSpills());
+				out.name("spilled-bytes").value(proc.getSpilledOutputBytes());
+				out.endObject();
+				OutputLimit limit = proc.getOutputLimit();
+				if(limit != null) {
+					out.name("limit").beginObject();
+					out.name("dropped-lines").value(limit.getDroppedLines());
+					out.name("dropped-bytes").value(limit.getDroppedBytes());
+					out.name("sampled").value(limit.getSampledLines());
+					out.name("collapsed").value(limit.getCollapsedLines());
+					out.endObject();
+				}
+				Supervisor supervisor = proc.getSupervisor();
+				out.name("supervisor").beginObject();
+				out.name("restarts").value(supervisor.getTotalRestarts());
+				out.name("recent").value(supervisor.getRecentRestarts());
+				out.name("pending").value(proc.isRestartPending());
+				out.name("given-up").value(supervisor.hasGivenUp());
+				out.endObject();
+				out.name("process");
+				proc.serialize(out);
+				return out.endObject().toBytes();
+			}
+
+			case "log": {
+				var page = proc.getLogSince(since, Integer.MAX_VALUE);
+				JsonWriter out = new JsonWriter();
+				out.beginObject().name("ok").value(true).name("first").value(page.first).name("next").value(page.next);
+				out.name("lines").beginArray();
+				for(var entry : page.entries) {
+					out.value(entry.line());
+				}
+				return out.endArray().endObject().toBytes();
+			}
+
+			case "history": {
+				if(!proc.hasHistory()) {
+					return error("history is not enabled for " + name);
+				}
+				if(count <= 0) {
+					return error("count must be positive");
+				}
+
+				//start at the given line or time, or at the oldest line still on disk
+				long first = proc.firstHistoryLine();
+				long start = at != null ? proc.findHistoryLine(at) : Math.max(line, first);
+				var entries = proc.getHistory(start, count);
+				JsonWriter out = new JsonWriter();
+				out.beginObject().name("ok").value(true).name("first").value(first).name("next").value(start + entries.size());
+				out.name("lines").beginArray();
+				for(var entry : entries) {
+					out.value(entry.line());
+				}
+				return out.endArray().endObject().toBytes();
+			}
+
+			case "search": {
+				var entries = proc.queryLog(query.build());
+				JsonWriter out = new JsonWriter();
+				out.beginObject().name("ok").value(true).name("lines").beginArray();
+				for(var entry : entries) {
+					out.value(entry.line());
+				}
+				return out.endArray().endObject().toBytes();
+			}
+
+			case "configure-history":
+				configureHistory(proc, history, searchIndex, compressHistory);
+				return ok();
+
+			default:
+				return error("unknown process action: " + action);
+		}
+	}
+
+	//turn the history store, its search index and segment compression on or off, null leaves a setting as it is
+	private static void configureHistory(Proc proc, Boolean history, Boolean searchIndex, Boolean compressHistory) {
+		//index and compression first so a newly opened store starts with them
+		if(searchIndex != null) {
+			if(searchIndex) {
+				proc.enableSearchIndex();
+			} else {
+				proc.disableSearchIndex();
+			}
+		}
+		if(compressHistory != null) {
+			if(compressHistory) {
+				proc.enableHistoryCompression();
+			} else {
+				proc.disableHistoryCompression();
+			}
+		}
+		if(history != null) {
+			if(history) {
+				proc.enableHistory();
+			} else {
+				proc.disableHistory();
+			}
+		}
+	}
+
+	private static byte[] task(JsonReader object) {
+		String process = null;
+		String action = null;
+		Task task = null;
+		String name = null;
+		String time = null;
+
+		object.beginObject();
+		while(object.hasNext()) {
+			switch(object.selectName(TASK_FIELDS)) {
+				case 0:
+					process = object.nextString();
+					break;
+
+				case 1:
+					action = object.nextString();
+					break;
+
+				case 2:
+					task = new Task(object);
+					break;
+
+				case 3:
+					name = object.nextString();
+					break;
+
+				case 4:
+					time = object.nextString();
+					break;
+
+				default:
+					object.skipValue();
+					break;
+			}
+		}
+		object.endObject();
+
+		if(action == null) {
+			return error("task requests need an action");
+		}
+		Proc proc = find(process);
+
+		switch(action) {
+			case "add":
+				if(task == null) {
+					return error("no task given");
+				}
+				proc.addTask(task);
+				return ok();
+
+			case "remove": {
+				Task existing = proc.getTask(name);
+				if(existing == null) {
+					return error("no such task: " + name);
+				}
+				proc.removeTask(existing);
+				return ok();
+			}
+
+			case "reschedule": {
+				Task existing = proc.getTask(name);
+				if(existing == null) {
+					return error("no such task: " + name);
+				}
+				if(time == null) {
+					return error("no elapse-time given");
+				}
+				if(!proc.rescheduleTask(existing, LocalDateTime.parse(time))) {
+					return error("elapse-time is in the past: " + time);
+				}
+				return ok();
+			}
+
+			default:
+				return error("unknown task action: " + action);
+		}
+	}
+
+	private static byte[] system(Message request, JsonReader object) {
+		String action = null;
+
+		object.beginObject();
+		while(object.hasNext()) {
+			if(object.selectName(SYSTEM_FIELDS) == 0) {
+				action = object.nextString();
+			} else {
+				object.skipValue();
+			}
+		}
+		object.endObject();
+
+		if("login".equals(action)) {
+			return error("login must be sent in a request of its own");
+		}
+		if("logout".equals(action)) {
+			Sessions.revoke(request.token);
+			return ok();
+		}
+		if("metrics".equals(action)) {
+			JsonWriter out = new JsonWriter();
+			out.beginObject().name("ok").value(true).name("dispatch");
+			Dispatcher.writeMetrics(out);
+			out.name("auth");
+			Auth.writeMetrics(out);
+			out.name("tls");
+			TlsEngine.writeMetrics(out);
+			return out.endObject().toBytes();
+		}
+		if("list".equals(action)) {
+			JsonWriter out = new JsonWriter();
+			out.beginObject().name("ok").value(true).name("names").beginArray();
+			for(var name : Main.State.processes.keySet()) {
+				out.value(name);
+			}
+			return out.endArray().endObject().toBytes();
+		}
+		return error("unknown system action: " + action);
+	}
+
+	//the only place the password hash is checked, everything after runs on the session token
+	//hashing happens on Auth's pool, the result completes once it's done
+	public static CompletableFuture<byte[]> login(Message request, JsonReader object) {
+		String username = null;
+		String password = null;
+		try {
+			object.beginObject();
+			while(object.hasNext()) {
+				switch(object.selectName(SYSTEM_FIELDS)) {
+					case 1:
+						username = object.nextString();
+						break;
+
+					case 2:
+						password = object.nextString();
+						break;
+
+					default:
+						object.skipValue();
+						break;
+				}
+			}
+			object.endObject();
+		} catch(RuntimeException e) {
+			return CompletableFuture.completedFuture(error(e.getMessage()));
+		}
+
+		if(username == null || password == null) {
+			return CompletableFuture.completedFuture(error("login needs a username and a password"));
+		}
+		Auth auth = Main.State.auth;
+		if(auth == null) {
+			return CompletableFuture.completedFuture(error("logins are disabled"));
+		}
+		if(!Auth.admit(request.source == null ? null : request.source.getAddress())) {
+			return CompletableFuture.completedFuture(error("too many login attempts, try again later"));
+		}
+
+		final String user = username;
+		char[] secret = password.toCharArray();
+		CompletableFuture<Boolean> check;
+		try {
+			check = auth.verify(user, secret);
+		} catch(RejectedExecutionException e) {
+			Arrays.fill(secret, '\0');
+			return CompletableFuture.completedFuture(error("server is busy, try again"));
+		}
+
+		return check.handle((valid, failure) -> {
+			Arrays.fill(secret, '\0');
+			if(failure != null || !valid) {
+				return error("invalid username or password");
+			}
+
+			String token = Sessions.create(user, Main.State.sessionLifetime);
+			if(request.source != null) {
+				request.source.username = user;
+			}
+
+			JsonWriter out = new JsonWriter();
+			out.beginObject().name("ok").value(true).name("token").value(token);
+			out.name("expires").value(Main.State.sessionLifetime.toSeconds());
+			return out.endObject().toBytes();
+		});
+	}
+
+	//name field of a subscribe/unsubscribe object
+	private static String name(JsonReader object) {
+		String name = null;
+
+		object.beginObject();
+		while(object.hasNext()) {
+			if(object.selectName(NAME_FIELDS) == 0) {
+				name = object.nextString();
+			} else {
+				object.skipValue();
+			}
+		}
+		object.endObject();
+		return name;
+	}
+
+	private static Proc find(String name) {
+		Proc proc = name == null ? null : Main.State.processes.get(name);
+		if(proc == null) {
+			throw new IllegalArgumentException("no such process: " + name);
+		}
+		return proc;
+	}
+
+	private static byte[] ok() {
+		return new JsonWriter(16).beginObject().name("ok").value(true).endObject().toBytes();
+	}
+
+	public static byte[] error(String reason) {
+		return new JsonWriter().beginObject().name("ok").value(false).name("error").value(reason).endObject().toBytes();
+	}
+}
@@ -0,0 +1,273 @@
+import java.nio.charset.StandardCharsets;
+
+//pull parser over utf-8 JSON bytes, values are read straight out of the buffer without building a tree
+public class JsonReader {
+	private final byte[] buf;
+	private int pos;
+	private final int end;
+
+	JsonReader(byte[] buf, int offset, int length) {
+		this.buf = buf;
+		this.pos = offset;
+		this.end = offset + length;
+	}
+
+	JsonReader(byte[] buf) {
+		this(buf, 0, buf.length);
+	}
+
+	//independent reader at the same position, for looking ahead
+	public JsonReader copy() {
+		return new JsonReader(buf, pos, end - pos);
+	}
+
+	public void beginObject() {
+		expect('{');
+	}
+	public void endObject() {
+		expect('}');
+	}
+	public void beginArray() {
+		expect('[');
+	}
+	public void endArray() {
+		expect(']');
+	}
+
+	//true if the current object or array has another member, consumes the separating comma
+	public boolean hasNext() {
+		byte next = peekByte();
+		if(next == ',') {
+			pos++;
+			next = peekByte();
+		}
+		return next != '}' && next != ']';
+	}
+
+	//read a member name and return its position in names, -1 if it isn't one of them (ascii names only)
+	public int selectName(String[] names) {
+		expect('"');
+		int start = pos;
+		boolean escaped = false;
+		while(pos < end && buf[pos] != '"') {
+			if(buf[pos] == '\\') {
+				escaped = true;
+				pos++;
+			}
+			pos++;
+		}
+		int length = pos - start;
+		pos++;
+		expect(':');
+
+		if(escaped) {
+			//names with escapes are rare enough to take the slow path
+			String name = decodeString(start, start + length);
+			for(int i = 0; i < names.length; i++) {
+				if(names[i].equals(name)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		for(int i = 0; i < names.length; i++) {
+			String name = names[i];
+			if(name.length() != length) {
+				continue;
+			}
+			int j = 0;
+			while(j < length && buf[start + j] == name.charAt(j)) {
+				j++;
+			}
+			if(j == length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	//true (and consumed) if the next value is null
+	public boolean nextNull() {
+		if(peekByte() == 'n') {
+			literal("null");
+			return true;
+		}
+		return false;
+	}
+
+	//next value is a string
+	public boolean isString() {
+		return peekByte() == '"';
+	}
+
+	public String nextString() {
+		if(nextNull()) {
+			return null;
+		}
+		expect('"');
+		int start = pos;
+		boolean escaped = false;
+		while(pos < end && buf[pos] != '"') {
+			if(buf[pos] == '\\') {
+				escaped = true;
+				pos++;
+			}
+			pos++;
+		}
+		if(pos >= end) {
+			throw error("unterminated string");
+		}
+		int stop = pos;
+		pos++;
+		return escaped ? decodeString(start, stop) : new String(buf, start, stop - start, StandardCharsets.UTF_8);
+	}
+
+	public long nextLong() {
+		peekByte();
+		boolean negative = false;
+		if(pos < end && buf[pos] == '-') {
+			negative = true;
+			pos++;
+		}
+
+		long value = 0;
+		int start = pos;
+		while(pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+			value = value * 10 + (buf[pos] - '0');
+			pos++;
+		}
+		if(pos == start) {
+			throw error("expected a number");
+		}
+
+		//fractions and exponents aren't used by the protocol, drop them
+		while(pos < end && (buf[pos] == '.' || buf[pos] == 'e' || buf[pos] == 'E' || buf[pos] == '+' || buf[pos] == '-' || (buf[pos] >= '0' && buf[pos] <= '9'))) {
+			pos++;
+		}
+		return negative ? -value : value;
+	}
+
+	public int nextInt() {
+		return (int) nextLong();
+	}
+
+	public boolean nextBoolean() {
+		if(peekByte() == 't') {
+			literal("true");
+			return true;
+		}
+		literal("false");
+		return false;
+	}
+
+	//skip the next value and return where it started and ended, used to keep nested objects as raw bytes
+	public int[] nextRaw() {
+		peekByte();
+		int start = pos;
+		skipValue();
+		return new int[] {start, pos};
+	}
+
+	public void skipValue() {
+		byte next = peekByte();
+		switch(next) {
+			case '{':
+			case '[':
+				int depth = 0;
+				do {
+					byte current = buf[pos];
+					if(current == '"') {
+						nextString();
+						continue;
+					}
+					if(current == '{' || current == '[') {
+						depth++;
+					} else if(current == '}' || current == ']') {
+						depth--;
+					}
+					pos++;
+				} while(depth > 0 && pos < end);
+				break;
+
+			case '"':
+				nextString();
+				break;
+
+			case 't':
+			case 'f':
+				nextBoolean();
+				break;
+
+			case 'n':
+				nextNull();
+				break;
+
+			default:
+				nextLong();
+				break;
+		}
+	}
+
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	//skip whitespace and return the next byte without consuming it
+	private byte peekByte() {
+		while(pos < end && (buf[pos] == ' ' || buf[pos] == '\t' || buf[pos] == '\n' || buf[pos] == '\r')) {
+			pos++;
+		}
+		if(pos >= end) {
+			throw error("unexpected end of input");
+		}
+		return buf[pos];
+	}
+
+	private void expect(char c) {
+		if(peekByte() != c) {
+			throw error("expected '" + c + "'");
+		}
+		pos++;
+	}
+
+	private void literal(String text) {
+		for(int i = 0; i < text.length(); i++) {
+			if(pos >= end || buf[pos] != text.charAt(i)) {
+				throw error("expected " + text);
+			}
+			pos++;
+		}
+	}
+
+	private String decodeString(int start, int stop) {
+		String raw = new String(buf, start, stop - start, StandardCharsets.UTF_8);
+		StringBuilder result = new StringBuilder(raw.length());
+		for(int i = 0; i < raw.length(); i++) {
+			char c = raw.charAt(i);
+			if(c != '\\') {
+				result.append(c);
+				continue;
+			}
+
+			char escape = raw.charAt(++i);
+			switch(escape) {
+				case 'n': result.append('\n'); break;
+				case 't': result.append('\t'); break;
+				case 'r': result.append('\r'); break;
+				case 'b': result.append('\b'); break;
+				case 'f': result.append('\f'); break;
+				case 'u':
+					result.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+					i += 4;
+					break;
+				default: result.append(escape); break;
+			}
+		}
+		return result.toString();
+	}
+
+	private IllegalArgumentException error(String problem) {
+		return new IllegalArgumentException("malformed JSON at " + pos + ": " + problem);
+	}
+}
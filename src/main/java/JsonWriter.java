@@ -0,0 +1,159 @@
+import java.util.Arrays;
+
+//streaming JSON encoder that writes utf-8 straight into a growable byte array
+public class JsonWriter {
+	private byte[] buf;
+	private int size = 0;
+	private boolean first = true; //no comma needed before the next member or element
+
+	JsonWriter() {
+		this(256);
+	}
+
+	JsonWriter(int capacity) {
+		buf = new byte[capacity];
+	}
+
+	public JsonWriter beginObject() {
+		separator();
+		put('{');
+		first = true;
+		return this;
+	}
+	public JsonWriter endObject() {
+		put('}');
+		first = false;
+		return this;
+	}
+	public JsonWriter beginArray() {
+		separator();
+		put('[');
+		first = true;
+		return this;
+	}
+	public JsonWriter endArray() {
+		put(']');
+		first = false;
+		return this;
+	}
+
+	public JsonWriter name(String name) {
+		separator();
+		string(name);
+		put(':');
+		first = true; //the value follows directly
+		return this;
+	}
+
+	public JsonWriter value(String value) {
+		separator();
+		if(value == null) {
+			ascii("null");
+		} else {
+			string(value);
+		}
+		first = false;
+		return this;
+	}
+
+	public JsonWriter value(long value) {
+		separator();
+		ascii(Long.toString(value));
+		first = false;
+		return this;
+	}
+
+	public JsonWriter value(boolean value) {
+		separator();
+		ascii(value ? "true" : "false");
+		first = false;
+		return this;
+	}
+
+	//already encoded JSON, copied as is
+	public JsonWriter raw(byte[] json, int offset, int length) {
+		separator();
+		ensure(length);
+		System.arraycopy(json, offset, buf, size, length);
+		size += length;
+		first = false;
+		return this;
+	}
+
+	//add a byte that isn't part of the JSON (newline terminator)
+	public JsonWriter terminate(char c) {
+		put(c);
+		return this;
+	}
+
+	public byte[] toBytes() {
+		return Arrays.copyOf(buf, size);
+	}
+
+	public String toString() {
+		return new String(buf, 0, size, java.nio.charset.StandardCharsets.UTF_8);
+	}
+
+	private void separator() {
+		if(!first) {
+			put(',');
+		}
+	}
+
+	private void string(String value) {
+		ensure(value.length() * 3 + 2);
+		buf[size++] = '"';
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\') {
+				ensure(2 + (value.length() - i) * 3);
+				buf[size++] = '\\';
+				buf[size++] = (byte) c;
+			} else if(c < 0x20) {
+				ensure(6 + (value.length() - i) * 3);
+				switch(c) {
+					case '\n': buf[size++] = '\\'; buf[size++] = 'n'; break;
+					case '\r': buf[size++] = '\\'; buf[size++] = 'r'; break;
+					case '\t': buf[size++] = '\\'; buf[size++] = 't'; break;
+					default:
+						ascii(String.format("\\u%04x", (int) c));
+						break;
+				}
+			} else if(c < 0x80) {
+				buf[size++] = (byte) c;
+			} else if(c < 0x800) {
+				buf[size++] = (byte) (0xC0 | (c >> 6));
+				buf[size++] = (byte) (0x80 | (c & 0x3F));
+			} else if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int code = Character.toCodePoint(c, value.charAt(++i));
+				buf[size++] = (byte) (0xF0 | (code >> 18));
+				buf[size++] = (byte) (0x80 | ((code >> 12) & 0x3F));
+				buf[size++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+				buf[size++] = (byte) (0x80 | (code & 0x3F));
+			} else {
+				buf[size++] = (byte) (0xE0 | (c >> 12));
+				buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buf[size++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		buf[size++] = '"';
+	}
+
+	private void ascii(String text) {
+		ensure(text.length());
+		for(int i = 0; i < text.length(); i++) {
+			buf[size++] = (byte) text.charAt(i);
+		}
+	}
+
+	private void put(char c) {
+		ensure(1);
+		buf[size++] = (byte) c;
+	}
+
+	private void ensure(int extra) {
+		if(size + extra > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+		}
+	}
+}
@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+//splits a byte stream into lines, reading it in large blocks and decoding each line straight from the block
+//lines are split on '\n' (a trailing '\r' is dropped), which is safe for UTF-8 and every other ASCII compatible charset
+public class LineReader {
+	public static final int BLOCK_SIZE = 64 * 1024;
+	public static final int MAX_LINE = 64 * 1024; //longer lines are handed out in pieces of this size
+
+	private final InputStream source;
+	private final Charset charset;
+	private final byte[] block = new byte[BLOCK_SIZE];
+	private int start = 0; //first byte of the line being assembled
+	private int end = 0;   //end of the bytes read so far
+	private boolean eof = false;
+	private int scanned = 0; //bytes after start already known to hold no '\n' (readLines only)
+
+	//receives a line as a range of the reader's block, the bytes are only valid during the call
+	public interface Lines {
+		void line(byte[] block, int offset, int length) throws IOException;
+	}
+
+	LineReader(InputStream source, Charset charset) {
+		this.source = source;
+		this.charset = charset;
+	}
+
+	//next line without its terminator, null at the end of the stream (blocks until a line is available)
+	public String readLine() throws IOException {
+		int scanned = start;
+		while(true) {
+			for(int i = scanned; i < end; i++) {
+				if(block[i] == '\n') {
+					int length = i - start;
+					if(length > 0 && block[i - 1] == '\r') {
+						length--;
+					}
+					String line = new String(block, start, length, charset);
+					start = i + 1;
+					return line;
+				}
+			}
+			scanned = end;
+
+			//unterminated line at the end of the stream or one that outgrew the limit
+			if(eof || end - start >= MAX_LINE) {
+				if(end == start) {
+					return null;
+				}
+				int length = Math.min(end - start, MAX_LINE);
+				String line = new String(block, start, length, charset);
+				start += length;
+				return line;
+			}
+
+			int offset = scanned - start;
+			fill();
+			scanned = start + offset;
+		}
+	}
+
+	//read from the source once (blocking until something arrives) and hand every complete line in the block to lines
+	//without decoding it, false once the stream has ended (any unterminated last line is handed out first)
+	//a reader is used either through readLine() or through readLines(), not both
+	public boolean readLines(Lines lines) throws IOException {
+		fill();
+
+		for(int i = start + scanned; i < end; i++) {
+			if(block[i] == '\n') {
+				int length = i - start;
+				if(length > 0 && block[i - 1] == '\r') {
+					length--;
+				}
+				lines.line(block, start, length);
+				start = i + 1;
+			}
+		}
+
+		//lines that outgrew the limit are handed out in pieces, an unterminated one at the end of the stream as it is
+		while(end - start >= MAX_LINE) {
+			lines.line(block, start, MAX_LINE);
+			start += MAX_LINE;
+		}
+		if(eof && end > start) {
+			lines.line(block, start, end - start);
+			start = end;
+		}
+		scanned = end - start;
+		return !eof;
+	}
+
+	//bytes the source can hand over without blocking
+	public int available() throws IOException {
+		return source.available();
+	}
+
+	//true if a complete line can be returned without blocking
+	public boolean ready() throws IOException {
+		for(int i = start; i < end; i++) {
+			if(block[i] == '\n') {
+				return true;
+			}
+		}
+		return source.available() > 0;
+	}
+
+	//read the next block, keeping the unfinished line at the front (it is always shorter than MAX_LINE here)
+	private void fill() throws IOException {
+		if(start > 0) {
+			System.arraycopy(block, start, block, 0, end - start);
+			end -= start;
+			start = 0;
+		}
+
+		int read = source.read(block, end, block.length - end);
+		if(read < 0) {
+			eof = true;
+		} else {
+			end += read;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+//a single log line stored as raw fields, the text form is built once on first use
+public class LogEntry {
+	private static final DateTimeFormatter SECOND_FORMAT = DateTimeFormatter.ofPattern("MM-dd-yy HH:mm:ss.");
+
+	//"MM-dd-yy HH:mm:ss." for the current second, shared by every log so it's only rebuilt once a second
+	private static final class SecondPrefix {
+		final long second;
+		final String text;
+
+		SecondPrefix(long second, String text) {
+			this.second = second;
+			this.text = text;
+		}
+	}
+	private static volatile SecondPrefix secondPrefix = new SecondPrefix(Long.MIN_VALUE, "");
+
+	public final long time;       //epoch nanoseconds
+	public final String managerID;
+	public final String info;     //STDOUT, STDERR, TASK... or null for general messages
+	public final String msg;
+	private final boolean timestamp;
+	private volatile String line = null;
+
+	LogEntry(String managerID, String info, String msg, boolean timestamp) {
+		this(now(), managerID, info, msg, timestamp);
+	}
+
+	//rebuild an entry that was stored earlier (log history)
+	LogEntry(long time, String managerID, String info, String msg, boolean timestamp) {
+		this.time = time;
+		this.managerID = managerID;
+		this.info = info;
+		this.msg = msg;
+		this.timestamp = timestamp;
+	}
+
+	//current time in epoch nanoseconds
+	public static long now() {
+		Instant now = Instant.now();
+		return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+	}
+
+	//formatted line "MM-dd-yy HH:mm:ss.SS - [manager][info]: msg", built in a single buffer
+	public String line() {
+		String result = line;
+		if(result == null) {
+			result = format();
+			line = result;
+		}
+		return result;
+	}
+
+	public String toString() {
+		return line();
+	}
+
+	private String format() {
+		int length = managerID.length() + msg.length() + 4;
+		if(info != null) {
+			length += info.length() + 2;
+		}
+		if(timestamp) {
+			length += 23;
+		}
+
+		StringBuilder builder = new StringBuilder(length);
+		if(timestamp) {
+			long second = Math.floorDiv(time, 1_000_000_000L);
+			int hundredths = (int) (Math.floorMod(time, 1_000_000_000L) / 10_000_000);
+			builder.append(prefix(second)).append((char) ('0' + hundredths / 10)).append((char) ('0' + hundredths % 10)).append(" - ");
+		}
+		builder.append('[').append(managerID).append(']');
+		if(info != null) {
+			builder.append('[').append(info).append(']');
+		}
+		builder.append(": ").append(msg);
+
+		return builder.toString();
+	}
+
+	//date and time down to the second, the zone is looked up again each second so DST changes are picked up
+	private static String prefix(long second) {
+		SecondPrefix cached = secondPrefix;
+		if(cached.second == second) {
+			return cached.text;
+		}
+
+		String text = LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault()).format(SECOND_FORMAT);
+		//entries formatted late (lazy formatting) don't evict the current second
+		if(second > cached.second) {
+			secondPrefix = new SecondPrefix(second, text);
+		}
+		return text;
+	}
+}
@@ -0,0 +1,98 @@
+import java.util.HashMap;
+import java.util.Map;
+
+//trigram index over a sealed history segment, maps every 3 character sequence to the blocks of lines that contain it
+public class LogIndex {
+	public static final int BLOCK = 64; //lines per block
+
+	//growable list of block numbers, always ascending since lines are indexed in order
+	private static class Postings {
+		int[] blocks = new int[4];
+		int size = 0;
+
+		void add(int block) {
+			if(size > 0 && blocks[size - 1] == block) {
+				return;
+			}
+			if(size == blocks.length) {
+				int[] grown = new int[size * 2];
+				System.arraycopy(blocks, 0, grown, 0, size);
+				blocks = grown;
+			}
+			blocks[size++] = block;
+		}
+	}
+
+	private final Map<Long, Postings> postings = new HashMap<>();
+	private final int blockCount;
+
+	LogIndex(int lines) {
+		blockCount = (lines + BLOCK - 1) / BLOCK;
+	}
+
+	//index one line's message, lines must be added in order
+	void add(int line, String msg) {
+		int block = line / BLOCK;
+		for(int i = 0; i + 3 <= msg.length(); i++) {
+			postings.computeIfAbsent(trigram(msg, i), key -> new Postings()).add(block);
+		}
+	}
+
+	//blocks that may contain text, null if the text is too short to narrow anything down
+	public int[] candidates(String text) {
+		if(text.length() < 3) {
+			return null;
+		}
+
+		int[] result = null;
+		int size = 0;
+		for(int i = 0; i + 3 <= text.length(); i++) {
+			Postings list = postings.get(trigram(text, i));
+			if(list == null) {
+				return new int[0];
+			}
+
+			if(result == null) {
+				result = new int[list.size];
+				System.arraycopy(list.blocks, 0, result, 0, list.size);
+				size = list.size;
+			} else {
+				size = intersect(result, size, list);
+			}
+
+			if(size == 0) {
+				return new int[0];
+			}
+		}
+
+		int[] trimmed = new int[size];
+		System.arraycopy(result, 0, trimmed, 0, size);
+		return trimmed;
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	//intersect two ascending lists in place, returns the new size of current
+	private static int intersect(int[] current, int size, Postings other) {
+		int kept = 0;
+		int j = 0;
+		for(int i = 0; i < size && j < other.size; ) {
+			if(current[i] < other.blocks[j]) {
+				i++;
+			} else if(current[i] > other.blocks[j]) {
+				j++;
+			} else {
+				current[kept++] = current[i];
+				i++;
+				j++;
+			}
+		}
+		return kept;
+	}
+
+	private static long trigram(String text, int at) {
+		return ((long) text.charAt(at) << 32) | ((long) text.charAt(at + 1) << 16) | text.charAt(at + 2);
+	}
+}
@@ -0,0 +1,114 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+//server-side filter over a process's log history: time range, tag (STDOUT/STDERR/TASK...) and text
+public class LogQuery {
+	public static final String UNTAGGED = ""; //matches general messages added without an info tag
+
+	final long from;        //epoch nanoseconds, inclusive
+	final long to;          //epoch nanoseconds, exclusive
+	final Set<String> info; //null matches every tag
+	final String text;      //plain substring, can use the trigram index
+	final Pattern pattern;  //regular expression, always checked line by line
+	final int limit;
+
+	LogQuery(Builder toCopy) {
+		from    = toCopy.from;
+		to      = toCopy.to;
+		info    = toCopy.info;
+		text    = toCopy.text;
+		pattern = toCopy.pattern;
+		limit   = toCopy.limit;
+	}
+
+	//check everything except the time range, which the store narrows down through its index
+	public boolean matches(LogEntry entry) {
+		if(info != null && !info.contains(entry.info == null ? UNTAGGED : entry.info)) {
+			return false;
+		}
+		if(text != null && !entry.msg.contains(text)) {
+			return false;
+		}
+		return pattern == null || pattern.matcher(entry.msg).find();
+	}
+
+	public boolean inRange(LogEntry entry) {
+		return entry.time >= from && entry.time < to;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	private static long toNanos(LocalDateTime time) {
+		Instant instant = time.atZone(ZoneId.systemDefault()).toInstant();
+		return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+	}
+
+	public static class Builder {
+		private long from = Long.MIN_VALUE;
+		private long to = Long.MAX_VALUE;
+		private Set<String> info = null;
+		private String text = null;
+		private Pattern pattern = null;
+		private int limit = 1000;
+
+		private Builder() {
+		}
+
+		public static Builder newInstance() {
+			return new Builder();
+		}
+
+		//entries written at or after time
+		public Builder after(LocalDateTime time) {
+			this.from = toNanos(time);
+			return this;
+		}
+
+		//entries written before time
+		public Builder before(LocalDateTime time) {
+			this.to = toNanos(time);
+			return this;
+		}
+
+		public Builder between(LocalDateTime start, LocalDateTime end) {
+			return after(start).before(end);
+		}
+
+		//only entries with one of these tags (use UNTAGGED for general messages)
+		public Builder info(String... tags) {
+			if(this.info == null) {
+				this.info = new HashSet<>();
+			}
+			this.info.addAll(Set.of(tags));
+			return this;
+		}
+
+		//entries whose message contains text (case sensitive)
+		public Builder contains(String text) {
+			this.text = text;
+			return this;
+		}
+
+		//entries whose message matches the regular expression anywhere
+		public Builder regex(String expression) {
+			this.pattern = Pattern.compile(expression);
+			return this;
+		}
+
+		//maximum number of entries returned
+		public Builder limit(int limit) {
+			this.limit = Math.max(1, limit);
+			return this;
+		}
+
+		public LogQuery build() {
+			return new LogQuery(this);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+//preallocated ring of log entries addressed by sequence number
+//appends come from one thread at a time (ProcLog serializes its writers), readers never lock
+public class LogRing<E> {
+	//result of a read, entries are in sequence order starting at first
+	public static class Page<E> {
+		public final long first; //sequence number of entries.get(0), greater than requested if entries were lost
+		public final long next;  //sequence number to ask for on the next read
+		public final List<E> entries;
+
+		private Page(long first, long next, List<E> entries) {
+			this.first = first;
+			this.next = next;
+			this.entries = entries;
+		}
+	}
+
+	private final AtomicReferenceArray<E> slots;
+	private final int capacity;
+	private volatile long head;  //sequence number of the next entry to be appended
+	private volatile long floor; //entries before this sequence number have been cleared
+
+	LogRing(int capacity) {
+		this(capacity, 0);
+	}
+
+	LogRing(int capacity, long start) {
+		this.capacity = capacity;
+		//one spare slot is the one the writer may be filling, so readers can always see a full capacity of entries
+		slots = new AtomicReferenceArray<>(capacity + 1);
+		head = start;
+		floor = start;
+	}
+
+	//single writer append, the slot is filled before the new head is published
+	public void append(E entry) {
+		long seq = head;
+		slots.lazySet(slot(seq), entry);
+		head = seq + 1;
+	}
+
+	//read every entry from sequence number seq onwards (up to max entries)
+	@SuppressWarnings("unchecked")
+	public Page<E> since(long seq, int max) {
+		long end = head;
+		long start = Math.max(Math.max(seq, floor), end - capacity);
+		if(end - start > max) {
+			end = start + max;
+		}
+		if(start >= end) {
+			return new Page<>(end, end, List.of());
+		}
+
+		Object[] copy = new Object[(int) (end - start)];
+		for(long i = start; i < end; i++) {
+			copy[(int) (i - start)] = slots.get(slot(i));
+		}
+
+		//the writer may have lapped us while copying, anything it could have overwritten is dropped
+		long valid = head - capacity;
+		if(valid > start) {
+			int skip = (int) Math.min(valid - start, copy.length);
+			copy = Arrays.copyOfRange(copy, skip, copy.length);
+			start += skip;
+		}
+
+		return new Page<>(start, end, (List<E>) Arrays.asList(copy));
+	}
+
+	//read the whole ring
+	public Page<E> snapshot() {
+		return since(0, capacity);
+	}
+
+	//drop everything currently in the ring, sequence numbers keep counting up
+	public void clear() {
+		floor = head;
+	}
+
+	//copy the live entries into a ring of a different size, sequence numbers carry over
+	public LogRing<E> resize(int newCapacity) {
+		//keep the newest entries if the ring is shrinking
+		var page = since(head - newCapacity, newCapacity);
+		LogRing<E> resized = new LogRing<>(newCapacity, page.first);
+		for(var entry : page.entries) {
+			resized.append(entry);
+		}
+		resized.floor = Math.max(floor, page.first);
+		return resized;
+	}
+
+	public long getHead() {
+		return head;
+	}
+	public int size() {
+		return (int) (head - Math.max(floor, head - capacity));
+	}
+	public int getCapacity() {
+		return capacity;
+	}
+
+	private int slot(long seq) {
+		return (int) (seq % (capacity + 1));
+	}
+}
@@ -0,0 +1,481 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/* STORAGE LAYOUT
+   one directory per log, holding segments named after the line number of their first entry
+
+   <first>.seg: records back to back
+   	time: long (epoch nanoseconds)
+   	info: unsigned byte length (255 for none) + utf-8 bytes
+   	msg: int length + utf-8 bytes
+
+   <first>.segz: the same records block compressed once the segment is sealed (see CompressedSegment)
+
+   <first>.idx: one 16 byte entry per line
+   	time: long
+   	offset: int (position of the record in the .seg file)
+   	length: int (size of the record)
+ */
+
+//persistent, segmented history of a ProcLog. segments are written and read through memory mapped files
+public class LogStore {
+	private static final int INDEX_ENTRY = 16;
+
+	private static class Segment {
+		final long first;        //line number of the first entry
+		final File dataFile;
+		final File indexFile;
+		final File packedFile;
+		final long created;
+		volatile MappedByteBuffer data;
+		volatile MappedByteBuffer index;
+		volatile int count = 0;  //entries published to readers
+		volatile boolean sealed = false;
+		volatile LogIndex text = null; //built on the first indexed search once the segment is sealed
+		volatile CompressedSegment packed = null; //replaces data once the segment has been compressed
+
+		Segment(File directory, long first) {
+			this.first = first;
+			String name = String.format("%020d", first);
+			dataFile = new File(directory, name + ".seg");
+			indexFile = new File(directory, name + ".idx");
+			packedFile = new File(directory, name + ".segz");
+			created = System.currentTimeMillis();
+		}
+
+		//time of an entry, used for binary searches
+		long time(int entry) {
+			return index.getLong(entry * INDEX_ENTRY);
+		}
+
+		LogEntry read(int entry, String managerID) {
+			int offset = index.getInt(entry * INDEX_ENTRY + 8);
+			int length = index.getInt(entry * INDEX_ENTRY + 12);
+
+			//compression publishes packed before it clears data, so data has to be read first: a null data then always
+			//comes with a packed copy, and a mapping taken before compression stays readable
+			var raw = data;
+			var compressed = packed;
+			ByteBuffer record;
+			if(compressed != null) {
+				record = compressed.record(offset, length);
+			} else {
+				record = raw.duplicate().position(offset).limit(offset + length);
+			}
+			return decode(record, managerID);
+		}
+
+		//trigram index for a sealed segment, built once and shared by later searches
+		synchronized LogIndex textIndex(String managerID) {
+			if(text == null) {
+				LogIndex built = new LogIndex(count);
+				for(int i = 0; i < count; i++) {
+					built.add(i, read(i, managerID).msg);
+				}
+				text = built;
+			}
+			return text;
+		}
+	}
+
+	private final File directory;
+	private final String managerID;
+	private final int segmentBytes;
+	private final long segmentAge;
+	private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+	//a lone surrogate in a line becomes '?' instead of cutting the line short
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+		.onMalformedInput(CodingErrorAction.REPLACE)
+		.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private Segment active = null;
+	private long nextLine = 0;
+	private volatile boolean textIndex = false;
+	private volatile boolean compress = false;
+
+	//segmentBytes: roll once a segment's data file reaches this size, segmentAge: roll after this many milliseconds
+	LogStore(String directory, String managerID, int segmentBytes, long segmentAge) throws IOException {
+		this.directory = new File(directory);
+		this.managerID = managerID;
+		this.segmentBytes = segmentBytes;
+		this.segmentAge = segmentAge;
+
+		if(!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("unable to create history directory " + directory);
+		}
+		recover();
+	}
+
+	//append one entry, called with the owning ProcLog's lock held
+	public synchronized void append(LogEntry entry) throws IOException {
+		if(active == null || System.currentTimeMillis() - active.created > segmentAge) {
+			roll();
+		}
+
+		//retry once in a fresh segment if the record doesn't fit
+		if(!write(active, entry)) {
+			roll();
+			if(!write(active, entry)) {
+				throw new IOException("log entry larger than a segment");
+			}
+		}
+		nextLine++;
+	}
+
+	//read count entries starting at line number
+	public List<LogEntry> read(long line, int count) {
+		List<LogEntry> result = new ArrayList<>();
+
+		while(result.size() < count) {
+			Map.Entry<Long, Segment> found = segments.floorEntry(line);
+			if(found == null) {
+				//history before the oldest segment is gone, start at the oldest
+				found = segments.ceilingEntry(line);
+				if(found == null) {
+					break;
+				}
+				line = found.getKey();
+			}
+
+			Segment segment = found.getValue();
+			int entry = (int) (line - segment.first);
+			int available = segment.count;
+			if(entry >= available) {
+				//past the end of this segment, move to the next one if there is one
+				var next = segments.higherKey(segment.first);
+				if(next == null) {
+					break;
+				}
+				line = next;
+				continue;
+			}
+
+			for(; entry < available && result.size() < count; entry++, line++) {
+				result.add(segment.read(entry, managerID));
+			}
+		}
+
+		return result;
+	}
+
+	//run a query over the history, the time range is narrowed through the index and substring searches over sealed
+	//segments only look at blocks the trigram index says can match
+	public List<LogEntry> search(LogQuery query) {
+		List<LogEntry> result = new ArrayList<>();
+		long start = query.from == Long.MIN_VALUE ? firstLine() : findLine(query.from);
+		long end = query.to == Long.MAX_VALUE ? Long.MAX_VALUE : findLine(query.to);
+
+		Long first = segments.floorKey(start);
+		for(var segment : (first == null ? segments : segments.tailMap(first)).values()) {
+			if(segment.first >= end || result.size() >= query.limit) {
+				break;
+			}
+
+			int low = (int) Math.max(0, start - segment.first);
+			int high = (int) Math.min(segment.count, end - segment.first);
+
+			int[] blocks = null;
+			if(textIndex && segment.sealed && query.text != null) {
+				blocks = segment.textIndex(managerID).candidates(query.text);
+			}
+
+			if(blocks == null) {
+				scan(segment, low, high, query, result);
+			} else {
+				for(int block : blocks) {
+					int blockStart = Math.max(low, block * LogIndex.BLOCK);
+					int blockEnd = Math.min(high, (block + 1) * LogIndex.BLOCK);
+					if(blockStart < blockEnd) {
+						scan(segment, blockStart, blockEnd, query, result);
+					}
+					if(result.size() >= query.limit) {
+						break;
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+	//build trigram indexes for sealed segments so substring searches can skip blocks that can't match
+	public void enableTextIndex() {
+		textIndex = true;
+	}
+	public void disableTextIndex() {
+		textIndex = false;
+		for(var segment : segments.values()) {
+			segment.text = null;
+		}
+	}
+
+	//block compress sealed segments in the background, reads only inflate the blocks they touch
+	public void enableCompression() {
+		compress = true;
+		for(var segment : segments.values()) {
+			if(segment.sealed && segment.packed == null) {
+				ProcPool.executor().execute(() -> compress(segment));
+			}
+		}
+	}
+	public void disableCompression() {
+		compress = false;
+	}
+
+	//compressed size of the history on disk compared to the raw size, for monitoring
+	public long[] diskUsage() {
+		long raw = 0;
+		long stored = 0;
+		for(var segment : segments.values()) {
+			var compressed = segment.packed;
+			raw += segment.count > 0 ? segment.index.getInt((segment.count - 1) * INDEX_ENTRY + 8) + segment.index.getInt((segment.count - 1) * INDEX_ENTRY + 12) : 0;
+			stored += compressed != null ? compressed.size() : segment.dataFile.length();
+		}
+		return new long[] {raw, stored};
+	}
+
+	private void compress(Segment segment) {
+		synchronized(segment) {
+			if(segment.packed != null || segment.data == null) {
+				return;
+			}
+
+			try {
+				CompressedSegment.write(segment.packedFile, segment.data, segment.index, segment.count, INDEX_ENTRY);
+				segment.packed = new CompressedSegment(segment.packedFile);
+			} catch(IOException e) {
+				System.err.println(managerID + ": unable to compress history segment " + segment.dataFile.getName());
+				if(!segment.packedFile.delete()) {
+					System.err.println(managerID + ": unable to remove " + segment.packedFile.getName());
+				}
+				return;
+			}
+
+			//readers that already hold the mapping keep using it, new reads go through the compressed copy
+			segment.data = null;
+			if(!segment.dataFile.delete()) {
+				System.err.println(managerID + ": unable to remove compressed history segment " + segment.dataFile.getName());
+			}
+		}
+	}
+
+	private void scan(Segment segment, int low, int high, LogQuery query, List<LogEntry> result) {
+		for(int i = low; i < high && result.size() < query.limit; i++) {
+			LogEntry entry = segment.read(i, managerID);
+			if(query.inRange(entry) && query.matches(entry)) {
+				result.add(entry);
+			}
+		}
+	}
+
+	//line number of the first entry written at or after time (epoch nanoseconds)
+	//lower bound binary search over every line on disk, the segment holding a line is found through the segment map
+	public long findLine(long time) {
+		long low = firstLine();
+		long high = nextLine();
+		while(low < high) {
+			long mid = (low + high) >>> 1;
+			var found = segments.floorEntry(mid);
+			if(found == null) {
+				return high;
+			}
+
+			//an entry that isn't published yet counts as later than time
+			Segment segment = found.getValue();
+			int entry = (int) (mid - segment.first);
+			if(entry >= segment.count || segment.time(entry) >= time) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+
+	//line number of the oldest entry still on disk
+	public long firstLine() {
+		var first = segments.firstEntry();
+		return first == null ? nextLine : first.getKey();
+	}
+
+	//line number the next entry will get
+	public synchronized long nextLine() {
+		return nextLine;
+	}
+
+	//seal the active segment and stop writing
+	public synchronized void close() {
+		if(active != null) {
+			seal(active, active.data.position());
+			active = null;
+		}
+	}
+
+	private boolean write(Segment segment, LogEntry entry) {
+		int count = segment.count;
+		if((count + 1) * INDEX_ENTRY > segment.index.capacity()) {
+			return false;
+		}
+
+		ByteBuffer data = segment.data;
+		int start = data.position();
+		try {
+			data.putLong(entry.time);
+			if(entry.info == null) {
+				data.put((byte) 255);
+			} else {
+				byte[] info = entry.info.getBytes(StandardCharsets.UTF_8);
+				int length = Math.min(info.length, 254);
+				data.put((byte) length);
+				data.put(info, 0, length);
+			}
+
+			//encode the message straight into the mapping, then go back and fill in its length
+			int lengthAt = data.position();
+			data.putInt(0);
+			encoder.reset();
+			if(encoder.encode(CharBuffer.wrap(entry.msg), data, true).isOverflow()) {
+				data.position(start);
+				return false;
+			}
+			data.putInt(lengthAt, data.position() - lengthAt - 4);
+		} catch(RuntimeException e) {
+			//BufferOverflowException, the record doesn't fit in what's left of the segment
+			data.position(start);
+			return false;
+		}
+
+		int at = count * INDEX_ENTRY;
+		segment.index.putInt(at + 8, start);
+		segment.index.putInt(at + 12, data.position() - start);
+		segment.index.putLong(at, entry.time);
+		segment.count = count + 1;
+		return true;
+	}
+
+	private static LogEntry decode(ByteBuffer record, String managerID) {
+		long time = record.getLong();
+		int infoLength = record.get() & 0xFF;
+		String info = null;
+		if(infoLength != 255) {
+			info = StandardCharsets.UTF_8.decode(record.slice().limit(infoLength)).toString();
+			record.position(record.position() + infoLength);
+		}
+		int msgLength = record.getInt();
+		String msg = StandardCharsets.UTF_8.decode(record.slice().limit(msgLength)).toString();
+		return new LogEntry(time, managerID, info, msg, true);
+	}
+
+	//start a new active segment, the old one is sealed in the background so the capture thread (which holds the
+	//ProcLog lock here) never waits for its fsync
+	//the new segment is mapped before the old one is handed off, if that fails the old one stays active and unsealed
+	private void roll() throws IOException {
+		Segment segment = new Segment(directory, nextLine);
+		try(var data = new RandomAccessFile(segment.dataFile, "rw"); var index = new RandomAccessFile(segment.indexFile, "rw")) {
+			segment.data = data.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+			//assume lines average at least 32 bytes, the segment rolls early if they don't
+			segment.index = index.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) (segmentBytes / 32) * INDEX_ENTRY);
+		}
+
+		if(active != null) {
+			Segment finished = active;
+			int length = finished.data.position();
+			ProcPool.executor().execute(() -> seal(finished, length));
+		}
+		segments.put(segment.first, segment);
+		active = segment;
+	}
+
+	//flush a segment and trim its files down to what was actually written (dataLength bytes)
+	//nothing is appended to a segment once it is sealed or handed to a background seal
+	private void seal(Segment segment, int dataLength) {
+		segment.data.force();
+		segment.index.force();
+		int count = segment.count;
+
+		try(var data = new RandomAccessFile(segment.dataFile, "rw"); var index = new RandomAccessFile(segment.indexFile, "rw")) {
+			data.setLength(dataLength);
+			index.setLength((long) count * INDEX_ENTRY);
+			segment.data = data.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, dataLength);
+			segment.index = index.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, (long) count * INDEX_ENTRY);
+		} catch(IOException e) {
+			System.err.println(managerID + ": unable to seal history segment " + segment.dataFile.getName());
+		}
+		segment.sealed = true;
+
+		if(compress) {
+			ProcPool.executor().execute(() -> compress(segment));
+		}
+	}
+
+	//reopen segments left by a previous run, an unsealed segment is sealed at its last complete entry
+	private void recover() throws IOException {
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(".idx"));
+		if(files == null) {
+			return;
+		}
+		Arrays.sort(files);
+
+		for(var file : files) {
+			long first = Long.parseLong(file.getName().substring(0, file.getName().length() - 4));
+			Segment segment = new Segment(directory, first);
+			if(!segment.dataFile.exists()) {
+				if(segment.packedFile.exists()) {
+					//already compressed, the index was trimmed when the segment was sealed
+					try(var index = new RandomAccessFile(segment.indexFile, "r")) {
+						segment.index = index.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, index.length());
+					}
+					segment.packed = new CompressedSegment(segment.packedFile);
+					segment.count = segment.index.capacity() / INDEX_ENTRY;
+					segment.sealed = true;
+					segments.put(first, segment);
+					nextLine = first + segment.count;
+				}
+				continue;
+			}
+
+			//compression was interrupted, the raw segment is still the valid copy
+			if(segment.packedFile.exists() && !segment.packedFile.delete()) {
+				System.err.println(managerID + ": unable to remove partial " + segment.packedFile.getName());
+			}
+
+			try(var data = new RandomAccessFile(segment.dataFile, "rw"); var index = new RandomAccessFile(segment.indexFile, "rw")) {
+				segment.index = index.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, index.length());
+				segment.data = data.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, data.length());
+			}
+
+			//time is written last, a zero time marks the end of a segment that was never sealed
+			int count = 0;
+			int capacity = segment.index.capacity() / INDEX_ENTRY;
+			while(count < capacity && segment.index.getLong(count * INDEX_ENTRY) != 0) {
+				count++;
+			}
+			if(count == 0) {
+				//nothing was ever written to this segment
+				segment.data = null;
+				segment.index = null;
+				if(!segment.dataFile.delete() || !segment.indexFile.delete()) {
+					System.err.println(managerID + ": unable to remove empty history segment " + segment.dataFile.getName());
+				}
+				continue;
+			}
+			segment.count = count;
+			seal(segment, segment.index.getInt((count - 1) * INDEX_ENTRY + 8) + segment.index.getInt((count - 1) * INDEX_ENTRY + 12));
+
+			segments.put(first, segment);
+			nextLine = first + count;
+		}
+	}
+}
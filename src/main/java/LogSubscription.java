@@ -0,0 +1,134 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+//live feed of a ProcLog to one client. entries are queued up to a fixed size and delivered from the process pool,
+//so a slow client only ever loses its own entries and never holds up the process or other subscribers
+public class LogSubscription {
+	public enum Overflow {DROP_OLDEST, DROP_NEWEST}
+
+	private final ProcLog owner;
+	private final String managerID;
+	private final Consumer<Message> sink;
+	private final int capacity;
+	private final Overflow overflow;
+	private final ArrayDeque<Message> queue;
+
+	private long dropped = 0;      //dropped since the last notice was sent
+	private long totalDropped = 0;
+	private boolean draining = false;
+	private boolean paused = false; //client is backed up, entries keep queueing (and dropping) until it catches up
+	private volatile boolean closed = false;
+
+	LogSubscription(ProcLog owner, String managerID, Consumer<Message> sink, int capacity, Overflow overflow) {
+		this.owner = owner;
+		this.managerID = managerID;
+		this.sink = sink;
+		this.capacity = Math.max(1, capacity);
+		this.overflow = overflow;
+		queue = new ArrayDeque<>(this.capacity);
+	}
+
+	//queue a message, never blocks
+	public void offer(Message frame) {
+		boolean schedule = false;
+
+		synchronized(this) {
+			if(closed) {
+				return;
+			}
+
+			if(queue.size() >= capacity) {
+				dropped++;
+				totalDropped++;
+				if(overflow == Overflow.DROP_NEWEST) {
+					return;
+				}
+				queue.poll();
+			}
+			queue.add(frame);
+
+			if(!draining && !paused) {
+				draining = true;
+				schedule = true;
+			}
+		}
+
+		if(schedule) {
+			ProcPool.executor().execute(this::drain);
+		}
+	}
+
+	//hold deliveries while the client can't keep up
+	public synchronized void pause() {
+		paused = true;
+	}
+
+	//deliver again, whatever was dropped meanwhile is reported in one notice
+	public void resume() {
+		synchronized(this) {
+			paused = false;
+			if(draining || closed || (queue.isEmpty() && dropped == 0)) {
+				return;
+			}
+			draining = true;
+		}
+		ProcPool.executor().execute(this::drain);
+	}
+
+	//deliver everything queued, dropped entries are reported once as a single notice ahead of the rest
+	private void drain() {
+		List<Message> batch = new ArrayList<>();
+
+		while(true) {
+			synchronized(this) {
+				if(paused || closed) {
+					draining = false;
+					return;
+				}
+				if(dropped > 0) {
+					batch.add(Message.logDropped(managerID, dropped));
+					dropped = 0;
+				}
+				batch.addAll(queue);
+				queue.clear();
+
+				if(batch.isEmpty()) {
+					draining = false;
+					return;
+				}
+			}
+
+			for(var frame : batch) {
+				sink.accept(frame);
+			}
+			batch.clear();
+		}
+	}
+
+	//stop delivering and leave the log's subscriber list, anything still queued is discarded
+	public void close() {
+		synchronized(this) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			queue.clear();
+		}
+		owner.detach(this);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+	public synchronized int getQueued() {
+		return queue.size();
+	}
+	public synchronized long getDropped() {
+		return totalDropped;
+	}
+	public String getManagerID() {
+		return managerID;
+	}
+}
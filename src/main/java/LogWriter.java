@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//appends lines to a log file in large batches, one shared thread flushes every open log
+public class LogWriter {
+	//controls when batched lines reach the file and whether they are forced to disk
+	public static class Policy {
+		private final int batchBytes;
+		private final long lingerMillis;
+		private final boolean sync;
+		private final boolean immediate;
+
+		Policy(Builder toCopy) {
+			batchBytes   = toCopy.batchBytes;
+			lingerMillis = toCopy.lingerMillis;
+			sync         = toCopy.sync;
+			immediate    = toCopy.immediate;
+		}
+
+		public static class Builder {
+			private int batchBytes = 64 * 1024; //flush once this much is pending
+			private long lingerMillis = 200;    //flush pending lines at least this often
+			private boolean sync = false;       //fsync after every flush
+			private boolean immediate = false;  //write every line from the calling thread (old behaviour)
+
+			private Builder() {
+			}
+
+			public static Builder newInstance() {
+				return new Builder();
+			}
+
+			public Builder batchBytes(int bytes) {
+				this.batchBytes = Math.max(1024, bytes);
+				return this;
+			}
+
+			public Builder linger(long millis) {
+				this.lingerMillis = Math.max(1, millis);
+				return this;
+			}
+
+			//force every flush to the storage device, survives power loss at the cost of throughput
+			public Builder sync() {
+				this.sync = true;
+				return this;
+			}
+
+			//no batching, each line is written and flushed before append() returns
+			public Builder immediate() {
+				this.immediate = true;
+				return this;
+			}
+
+			public Policy build() {
+				return new Policy(this);
+			}
+		}
+	}
+
+	public static final Policy DEFAULT_POLICY = Policy.Builder.newInstance().build();
+
+	private static final Set<LogWriter> writers = new CopyOnWriteArraySet<>();
+	private static final Object signal = new Object();
+	private static Thread flushThread = null;
+
+	private final FileChannel file;
+	private final Policy policy;
+	private final Queue<LogEntry> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pendingBytes = new AtomicInteger();
+	private final ByteBuffer buffer;
+	//a lone surrogate in a line becomes '?' instead of cutting the line short
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+		.onMalformedInput(CodingErrorAction.REPLACE)
+		.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private volatile long lastFlush = System.currentTimeMillis();
+	private boolean closed = false;
+
+	LogWriter(Path path, Policy policy) throws IOException {
+		this.policy = policy;
+		file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		buffer = ByteBuffer.allocateDirect(policy.immediate ? 8192 : policy.batchBytes);
+
+		if(!policy.immediate) {
+			register(this);
+		}
+	}
+
+	//queue an entry for writing, entries that haven't been formatted yet are formatted on the flush thread
+	public void append(LogEntry entry) {
+		pending.add(entry);
+		if(policy.immediate) {
+			flush();
+			return;
+		}
+
+		if(pendingBytes.addAndGet(estimate(entry)) >= policy.batchBytes) {
+			synchronized(signal) {
+				signal.notify();
+			}
+		}
+	}
+
+	//write everything queued so far
+	public synchronized void flush() {
+		if(closed) {
+			return;
+		}
+
+		try {
+			LogEntry entry;
+			while((entry = pending.poll()) != null) {
+				if(!policy.immediate) {
+					pendingBytes.addAndGet(-estimate(entry));
+				}
+				encode(entry.line());
+				encode("\n");
+			}
+			drainBuffer();
+
+			if(policy.sync) {
+				file.force(false);
+			}
+		} catch(IOException e) {
+			System.err.println("[MASTER]: unable to write to logfile.");
+		}
+		lastFlush = System.currentTimeMillis();
+	}
+
+	//flush and release the file, the writer can't be used afterwards
+	public void close() {
+		writers.remove(this);
+		flush();
+
+		synchronized(this) {
+			closed = true;
+			try {
+				file.close();
+			} catch(IOException e) {
+				//file is already closed
+			}
+		}
+	}
+
+	//encode straight into the batch buffer, writing it out whenever it fills
+	private void encode(String text) throws IOException {
+		CharBuffer chars = CharBuffer.wrap(text);
+		encoder.reset();
+		while(encoder.encode(chars, buffer, true).isOverflow()) {
+			drainBuffer();
+		}
+	}
+
+	private void drainBuffer() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			file.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	//rough size of the formatted line, good enough for the batch threshold
+	private static int estimate(LogEntry entry) {
+		return entry.msg.length() + 32;
+	}
+
+	private boolean due(long now) {
+		return pendingBytes.get() >= policy.batchBytes || (!pending.isEmpty() && now - lastFlush >= policy.lingerMillis);
+	}
+
+	private static void register(LogWriter writer) {
+		writers.add(writer);
+
+		synchronized(signal) {
+			if(flushThread == null) {
+				flushThread = new Thread(LogWriter::flushThread, "log-writer");
+				flushThread.setDaemon(true);
+				flushThread.start();
+
+				//don't lose the last batch when the server shuts down
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> writers.forEach(LogWriter::flush)));
+			}
+		}
+	}
+
+	//wake on size thresholds or the shortest linger time and flush every writer that is due
+	private static void flushThread() {
+		while(true) {
+			long wait = Long.MAX_VALUE;
+			long now = System.currentTimeMillis();
+
+			for(var writer : writers) {
+				if(writer.due(now)) {
+					writer.flush();
+				}
+				wait = Math.min(wait, writer.policy.lingerMillis);
+			}
+
+			synchronized(signal) {
+				try {
+					signal.wait(wait == Long.MAX_VALUE ? 1000 : wait);
+				} catch(InterruptedException e) {
+					//never interrupted on purpose
+				}
+			}
+		}
+	}
+}
@@ -1,21 +1,39 @@
+import javax.net.ssl.SSLContext;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Main {
 
 	public static class State {
-		public static String credentialsFile; //file where password hashes are stored
+		public static String credentialsFile = "credentials.json"; //file where password hashes are stored
+		public static Auth auth;              //checks logins against credentialsFile
+		public static Duration sessionLifetime = Duration.ofHours(12); //how long a login stays valid
 		public static String logDirectory;    //directory where logs are written (if enabled)
+		public static boolean virtualThreads = true; //run short process callbacks on virtual threads when the JDK supports them (capture always uses platform threads)
+		public static int ioThreads = Math.min(4, Runtime.getRuntime().availableProcessors()); //selector loops for client connections
+		public static Duration writeLinger = Duration.ZERO; //extra wait before flushing client output, lets more messages share a write
+		public static String tlsKeyStore;         //key store with the server certificate, null serves plaintext
+		public static char[] tlsKeyStorePassword = new char[0];
+		public static int tlsSessionCacheSize = 20000;                //TLS sessions kept for resumption
+		public static Duration tlsSessionTimeout = Duration.ofHours(24); //how long a TLS session can be resumed
+		public static int tlsHandshakeThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2); //pool for handshake work
+		public static int outputMemory = 4 * 1024 * 1024;                 //child output held in memory per stream before spilling
+		public static long outputSpillLimit = 1024L * 1024 * 1024;      //child output spilled to disk per stream before the child blocks
+		public static final Map<String, Proc> processes = new ConcurrentHashMap<>(); //managed processes by name
 	}
 
 	public static void main(String[] args) throws IOException {
-		System.out.println("Listening for clients on socket 31243...");
-		ServerSocket server = new ServerSocket(31243);
-		var temp = server.accept();
-		System.out.println("New connection has been accepted on: " + temp.getLocalSocketAddress());
+		State.auth = new Auth(State.credentialsFile);
+
+		SSLContext tls = null;
+		if(State.tlsKeyStore != null) {
+			tls = TlsEngine.createContext(State.tlsKeyStore, State.tlsKeyStorePassword, State.tlsSessionCacheSize, State.tlsSessionTimeout);
+		}
 
-		Client test = new Client(temp);
-		test.write("Yep it worked.\n");
+		System.out.println("Listening for clients on socket 31243...");
+		Server server = new Server(31243, State.ioThreads, tls);
+		server.run();
 	}
 }
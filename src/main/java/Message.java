@@ -1,32 +1,283 @@
 import org.json.JSONObject;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
 /*
 valid operations:
 request/response
+subscribe/unsubscribe (Process only, data: {"name": process name}) start or stop a live log feed
+push (server to client only, sent to log subscribers)
 
 valid types:
 Process
 Task
 System
+Log (push only, data: {"name": process name, "seq": sequence number, "time": epoch nanoseconds, "info": tag (absent for
+     general messages), "msg": text}), the raw fields of the entry so pushing never forces a line to be formatted
+Log-dropped (push only, data: {"name": process name, "count": entries dropped since the last push})
+
+token: session token returned by a system login request, required on everything except login
+id (optional): correlation id, copied into the response
+batches: data is {"objects": [...]} holding "object count" objects, see Handler for the objects of each type
 
 Process and Task will be set to a JSONObject of thier respective classes
 System will have a custom type
  */
 
 public class Message {
+	private static final String[] FIELDS = {"operation", "type", "object count", "token", "data", "id"};
+	private static final String[] BATCH_FIELDS = {"objects"};
+
 	public String operation;
 	public String type;
 	public int count = 0;
-	public int token = 0;
-	public JSONObject data = null;
+	public String token = null; //session token (see Sessions), null if the message carries none
+	public long id = 0;          //correlation id chosen by the client, echoed in the response so requests can be pipelined
+	public Client source = null; //connection the message arrived on (incoming messages only)
+
+	//data is kept as the raw JSON text it arrived in (or was encoded to), a tree is only built if someone asks for one
+	private byte[] dataBuffer = null;
+	private int dataOffset = 0;
+	private int dataLength = 0;
+	private JSONObject data = null;
+
+	private byte[] json = null;   //cached encodings, a message pushed to many clients is only encoded once per format
+	private byte[] binary = null;
 
 	Message(String msg) {
-		JSONObject info = new JSONObject(msg);
+		this(msg.getBytes(StandardCharsets.UTF_8));
+	}
+
+	//decode a JSON message straight from the bytes read off the socket
+	Message(byte[] msg) {
+		this(msg, 0, msg.length);
+	}
+
+	Message(byte[] msg, int offset, int length) {
+		JsonReader in = new JsonReader(msg, offset, length);
+		in.beginObject();
+		while(in.hasNext()) {
+			switch(in.selectName(FIELDS)) {
+				case 0:
+					operation = in.nextString();
+					break;
+
+				case 1:
+					type = in.nextString();
+					break;
+
+				case 2:
+					count = in.nextInt();
+					break;
+
+				case 3:
+					//older clients sent a number, it never names a session
+					if(in.nextNull()) {
+						token = null;
+					} else if(in.isString()) {
+						token = in.nextString();
+					} else {
+						token = String.valueOf(in.nextLong());
+					}
+					break;
+
+				case 4:
+					if(!in.nextNull()) {
+						int[] span = in.nextRaw();
+						dataBuffer = msg;
+						dataOffset = span[0];
+						dataLength = span[1] - span[0];
+					}
+					break;
+
+				case 5:
+					id = in.nextLong();
+					break;
+
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+
+		if(operation == null || type == null) {
+			throw new IllegalArgumentException("message is missing its operation or type");
+		}
+	}
+
+	//outgoing message
+	Message(String operation, String type, int count, String token, JSONObject data) {
+		this.operation = operation;
+		this.type = type;
+		this.count = count;
+		this.token = token;
+		this.data = data;
+	}
+
+	//message whose data is already encoded JSON
+	Message(String operation, String type, int count, String token, byte[] data) {
+		this.operation = operation;
+		this.type = type;
+		this.count = count;
+		this.token = token;
+		if(data != null) {
+			this.dataBuffer = data;
+			this.dataLength = data.length;
+		}
+	}
+
+	//data as a JSONObject tree, parsed on first use
+	public JSONObject getData() {
+		if(data == null && dataBuffer != null) {
+			data = new JSONObject(new String(dataBuffer, dataOffset, dataLength, StandardCharsets.UTF_8));
+		}
+		return data;
+	}
+
+	//pull parser positioned at the start of the data object, null if there is none
+	public JsonReader readData() {
+		if(dataBuffer == null) {
+			if(data == null) {
+				return null;
+			}
+			byte[] encoded = data.toString().getBytes(StandardCharsets.UTF_8);
+			return new JsonReader(encoded);
+		}
+		return new JsonReader(dataBuffer, dataOffset, dataLength);
+	}
+
+	//the objects this message carries, data: {"objects": [...]} for a batch, otherwise data itself
+	public List<JsonReader> objects() {
+		var in = readData();
+		if(in == null) {
+			return List.of();
+		}
+
+		List<JsonReader> objects = new ArrayList<>();
+		byte[] buffer = in.getBuffer();
+		in.beginObject();
+		while(in.hasNext()) {
+			if(in.selectName(BATCH_FIELDS) != 0) {
+				in.skipValue();
+				continue;
+			}
+
+			in.beginArray();
+			while(in.hasNext()) {
+				int[] span = in.nextRaw();
+				objects.add(new JsonReader(buffer, span[0], span[1] - span[0]));
+			}
+			in.endArray();
+		}
+
+		//not a batch, the data object is the only object
+		if(objects.isEmpty()) {
+			objects.add(readData());
+		}
+		return objects;
+	}
+
+	//data decoded straight into a Task (type task)
+	public Task getTask() {
+		var in = readData();
+		return in == null ? null : new Task(in);
+	}
+
+	//data as utf-8 JSON text
+	public byte[] dataBytes() {
+		if(dataBuffer != null) {
+			if(dataOffset == 0 && dataLength == dataBuffer.length) {
+				return dataBuffer;
+			}
+			byte[] copy = new byte[dataLength];
+			System.arraycopy(dataBuffer, dataOffset, copy, 0, dataLength);
+			return copy;
+		}
+		return data == null ? new byte[0] : data.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	public JSONObject toJSON() {
+		JSONObject record = new JSONObject();
+		record.put("operation", operation);
+		record.put("type", type);
+		record.put("object count", count);
+		if(token != null) {
+			record.put("token", token);
+		}
+		if(id != 0) {
+			record.put("id", id);
+		}
+		record.put("data", getData());
+		return record;
+	}
+
+	//write the message as a JSON object
+	public void write(JsonWriter out) {
+		out.beginObject();
+		out.name("operation").value(operation);
+		out.name("type").value(type);
+		out.name("object count").value(count);
+		if(token != null) {
+			out.name("token").value(token);
+		}
+		if(id != 0) {
+			out.name("id").value(id);
+		}
+		out.name("data");
+		if(dataBuffer != null) {
+			out.raw(dataBuffer, dataOffset, dataLength);
+		} else if(data != null) {
+			byte[] encoded = data.toString().getBytes(StandardCharsets.UTF_8);
+			out.raw(encoded, 0, encoded.length);
+		} else {
+			out.value((String) null);
+		}
+		out.endObject();
+	}
+
+	//newline delimited wire format
+	public byte[] encode() {
+		if(json == null) {
+			JsonWriter out = new JsonWriter(dataLength + 96);
+			write(out);
+			json = out.terminate('\n').toBytes();
+		}
+		return json;
+	}
+
+	//length prefixed wire format (see BinaryCodec)
+	public byte[] encodeBinary() {
+		if(binary == null) {
+			binary = BinaryCodec.encode(this);
+		}
+		return binary;
+	}
+
+	//log entry pushed to subscribers, shared by every subscriber
+	public static Message logPush(String managerID, long seq, LogEntry entry) {
+		JsonWriter data = new JsonWriter(entry.msg.length() + managerID.length() + 80);
+		data.beginObject();
+		data.name("name").value(managerID);
+		data.name("seq").value(seq);
+		data.name("time").value(entry.time);
+		if(entry.info != null) {
+			data.name("info").value(entry.info);
+		}
+		data.name("msg").value(entry.msg);
+		data.endObject();
+		return new Message("push", "log", 1, null, data.toBytes());
+	}
 
-		operation = info.getString("operation");
-		type = info.getString("type");
-		count = info.getInt("object count");
-		token = info.getInt("token");
-		data = info.getJSONObject("data");
+	//notice that a subscriber fell behind and entries were dropped
+	public static Message logDropped(String managerID, long count) {
+		JsonWriter data = new JsonWriter();
+		data.beginObject();
+		data.name("name").value(managerID);
+		data.name("count").value(count);
+		data.endObject();
+		return new Message("push", "log-dropped", 1, null, data.toBytes());
 	}
 }
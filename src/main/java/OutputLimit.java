@@ -0,0 +1,218 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/* OUTPUT LIMITS
+applied to each line as the capture task splits it out of the pipe, before it is decoded, buffered or logged, so a
+child printing in a tight loop costs a comparison and a little arithmetic per line instead of a String, a backlog
+record and a log entry for every one of them
+
+collapse: a line identical to the previous one on the same stream is only counted, the count is logged as
+          "last message repeated N times" once a different line arrives or the stream ends
+rate: token buckets for lines and bytes per second (raw bytes of the line), each with a burst allowance
+sampling: once a bucket is empty, keep 1 in every sampleEvery lines instead of dropping them all
+dropped lines are reported with a single notice once output is allowed through again, or when the stream ends
+ */
+
+public class OutputLimit {
+	//where lines that pass and notices go, in order
+	public interface Sink {
+		void line(byte[] block, int offset, int length) throws IOException;
+		void notice(String info, String text) throws IOException;
+	}
+
+	//limits for one process, everything is off by default
+	public static class Policy {
+		private final double linesPerSecond;
+		private final double burstLines;
+		private final double bytesPerSecond;
+		private final double burstBytes;
+		private final int sampleEvery;
+		private final boolean collapse;
+
+		Policy(Builder toCopy) {
+			linesPerSecond = toCopy.linesPerSecond;
+			burstLines     = toCopy.burstLines;
+			bytesPerSecond = toCopy.bytesPerSecond;
+			burstBytes     = toCopy.burstBytes;
+			sampleEvery    = toCopy.sampleEvery;
+			collapse       = toCopy.collapse;
+		}
+
+		//nothing to check, lines go straight to the log
+		public boolean isUnlimited() {
+			return linesPerSecond <= 0 && bytesPerSecond <= 0 && !collapse;
+		}
+
+		public static class Builder {
+			private double linesPerSecond = 0; //0 for no line limit
+			private double burstLines = 0;
+			private double bytesPerSecond = 0; //0 for no byte limit
+			private double burstBytes = 0;
+			private int sampleEvery = 0;       //0 drops every line over the limit
+			private boolean collapse = false;
+
+			private Builder() {
+			}
+
+			public static Builder newInstance() {
+				return new Builder();
+			}
+
+			//lines per second on average, up to burst lines at once
+			public Builder lines(double perSecond, double burst) {
+				this.linesPerSecond = Math.max(0, perSecond);
+				this.burstLines = Math.max(1, burst);
+				return this;
+			}
+
+			//bytes per second on average, up to burst bytes at once
+			public Builder bytes(double perSecond, double burst) {
+				this.bytesPerSecond = Math.max(0, perSecond);
+				this.burstBytes = Math.max(1, burst);
+				return this;
+			}
+
+			//keep 1 in every n lines over the limit
+			public Builder sample(int n) {
+				this.sampleEvery = Math.max(0, n);
+				return this;
+			}
+
+			//count repeated identical lines instead of logging each one
+			public Builder collapseRepeats() {
+				this.collapse = true;
+				return this;
+			}
+
+			public Policy build() {
+				return new Policy(this);
+			}
+		}
+	}
+
+	public static final Policy UNLIMITED = Policy.Builder.newInstance().build();
+
+	private final Policy policy;
+	private double lineTokens;
+	private double byteTokens;
+	private long refilled = System.nanoTime();
+
+	//previous line (its first lastLength bytes) and its repeat count per stream (0 stdout, 1 stderr)
+	private final byte[][] last = {new byte[256], new byte[256]};
+	private final int[] lastLength = {-1, -1};
+	private final long[] repeats = new long[2];
+
+	private long overLimit = 0;       //lines over the limit since output was last let through
+	private final long[] pendingDropped = new long[2]; //dropped per stream since its last notice
+	private final long[] pendingDroppedBytes = new long[2];
+
+	private long droppedLines = 0;
+	private long droppedBytes = 0;
+	private long sampledLines = 0;
+	private long collapsedLines = 0;
+
+	OutputLimit(Policy policy) {
+		this.policy = policy;
+		lineTokens = policy.burstLines;
+		byteTokens = policy.burstBytes;
+	}
+
+	//pass a line on to sink if the policy lets it through, notices go to the same sink so they stay in order
+	public synchronized void offer(String info, boolean stderr, byte[] block, int offset, int length, Sink sink) throws IOException {
+		int stream = stderr ? 1 : 0;
+		if(policy.collapse) {
+			if(lastLength[stream] == length && Arrays.equals(last[stream], 0, length, block, offset, offset + length)) {
+				repeats[stream]++;
+				collapsedLines++;
+				return;
+			}
+			flushRepeats(info, stream, sink);
+			if(last[stream].length < length) {
+				last[stream] = new byte[Math.max(length, last[stream].length * 2)];
+			}
+			System.arraycopy(block, offset, last[stream], 0, length);
+			lastLength[stream] = length;
+		}
+
+		if(take(length)) {
+			flushDropped(stream, sink);
+			overLimit = 0;
+			sink.line(block, offset, length);
+			return;
+		}
+
+		overLimit++;
+		if(policy.sampleEvery > 0 && overLimit % policy.sampleEvery == 0) {
+			sampledLines++;
+			sink.line(block, offset, length);
+			return;
+		}
+		pendingDropped[stream]++;
+		pendingDroppedBytes[stream] += length;
+		droppedLines++;
+		droppedBytes += length;
+	}
+
+	//the stream ended, log any repeat count and dropped lines it still owes
+	public synchronized void flush(String info, boolean stderr, Sink sink) throws IOException {
+		int stream = stderr ? 1 : 0;
+		flushRepeats(info, stream, sink);
+		lastLength[stream] = -1;
+		flushDropped(stream, sink);
+	}
+
+	private void flushRepeats(String info, int stream, Sink sink) throws IOException {
+		if(repeats[stream] > 0) {
+			sink.notice(info, "last message repeated " + repeats[stream] + " times");
+			repeats[stream] = 0;
+		}
+	}
+
+	private void flushDropped(int stream, Sink sink) throws IOException {
+		if(pendingDropped[stream] > 0) {
+			sink.notice("LIMIT", pendingDropped[stream] + " lines (" + pendingDroppedBytes[stream] + " bytes) dropped by the output limit.");
+			pendingDropped[stream] = 0;
+			pendingDroppedBytes[stream] = 0;
+		}
+	}
+
+	//one line of length bytes from both buckets, false if either is empty
+	private boolean take(int length) {
+		long now = System.nanoTime();
+		double elapsed = (now - refilled) / 1e9;
+		refilled = now;
+
+		if(policy.linesPerSecond > 0) {
+			lineTokens = Math.min(policy.burstLines, lineTokens + elapsed * policy.linesPerSecond);
+			if(lineTokens < 1) {
+				return false;
+			}
+		}
+		if(policy.bytesPerSecond > 0) {
+			//a line longer than the burst gets through whenever the bucket is full
+			double cost = Math.min(length, policy.burstBytes);
+			byteTokens = Math.min(policy.burstBytes, byteTokens + elapsed * policy.bytesPerSecond);
+			if(byteTokens < cost) {
+				return false;
+			}
+			byteTokens -= cost;
+		}
+		if(policy.linesPerSecond > 0) {
+			lineTokens -= 1;
+		}
+		return true;
+	}
+
+	public synchronized long getDroppedLines() {
+		return droppedLines;
+	}
+	public synchronized long getDroppedBytes() {
+		return droppedBytes;
+	}
+	public synchronized long getSampledLines() {
+		return sampledLines;
+	}
+	public synchronized long getCollapsedLines() {
+		return collapsedLines;
+	}
+}
@@ -1,12 +1,13 @@
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 import org.json.*;
 
-//TODO - clients must be able to reschedule existing tasks
-//TODO - offer full logging history to clients on connect
 //TODO - log cache must be cleared at every start()
 
 public class Proc {
@@ -17,12 +18,17 @@ public class Proc {
 
 	private final List<String> processArgs  = new ArrayList<>();
 	private final List<Task> tasks = Collections.synchronizedList(new ArrayList<>());
-	private Thread schedulingThread;
-	private Thread monitorThread;
+	private final Map<Task, Scheduler.Entry> scheduled = new HashMap<>();
+	private Future<?> outCapture;
+	private Future<?> errCapture;
 
 	private boolean running     	= false;
 	private boolean autoRestart 	= false;
-	private boolean scheduleRunning = false;
+	private Charset charset     	= StandardCharsets.UTF_8; //encoding of the child's pipes
+	private volatile OutputLimit limit = null;            //null when output isn't limited
+	private Supervisor supervisor = new Supervisor(Supervisor.DEFAULT);
+	private Scheduler.Entry pendingRestart = null;        //restart waiting out its backoff
+	private long startedAt = 0;                           //nanoTime of the last start
 
 	Proc(String managerName, String procName) {
 		this.managerName = managerName;
@@ -41,149 +47,201 @@ public class Proc {
 	public void addTask(Task task) {
 		tasks.add(task);
 		log.addMsg("New task has been added: '" + task.getName() + "'. Set to activate at: " + task.getElapseTime());
+		scheduleTask(task);
+	}
 
-		//interrupt scheduling thread so it can act on the task if the scheduling thread is running
-		if(scheduleRunning) {
-			schedulingThread.interrupt();
-		} else {
-			//activate scheduling thread
-			scheduleRunning = true;
-			schedulingThread = new Thread(this::scheduleThread);
-			schedulingThread.start();
+	//remove a task and cancel its pending activation
+	public void removeTask(Task task) {
+		tasks.remove(task);
+		synchronized(scheduled) {
+			var entry = scheduled.remove(task);
+			if(entry != null) {
+				entry.cancel();
+			}
+		}
+	}
+
+	//move an existing task to a new activation time, false if the time is in the past (the task keeps its old one)
+	public boolean rescheduleTask(Task task, LocalDateTime time) {
+		if(!task.setElapseTime(time)) {
+			return false;
+		}
+		synchronized(scheduled) {
+			var entry = scheduled.remove(task);
+			if(entry != null) {
+				entry.cancel();
+			}
+		}
+		scheduleTask(task);
+		log.addMsg("TASK", "'" + task.getName() + "' has been rescheduled to: " + task.getElapseTime());
+		return true;
+	}
+
+	//find a task by name, null if there isn't one
+	public Task getTask(String name) {
+		synchronized(tasks) {
+			for(var task : tasks) {
+				if(task.getName().equals(name)) {
+					return task;
+				}
+			}
 		}
+		return null;
 	}
 
 	//send signal directly to process (without having to build a scheduledtask
 	public void sendSignal(String signal) {
-		io.write(signal);
+		ProcIO current = io;
+		if(current != null) {
+			current.write(signal);
+		}
 	}
 
-	//logic behind scheduled events
-	private void scheduleThread() {
-		while(scheduleRunning && tasks.size() > 0) {
-			LocalDateTime wait = waitTime();
-			Duration toWait = Duration.between(LocalDateTime.now(), wait);
+	//register the task with the shared scheduler
+	private void scheduleTask(Task task) {
+		if(!task.isEnabled()) {
+			return;
+		}
 
-			//wait for the next task to be elapsed unless interrupted
-			try {
-				TimeUnit.MILLISECONDS.sleep(toWait.toMillis());
-			} catch (InterruptedException e) {
-				//new task has been added to thread
-				continue;
+		synchronized(scheduled) {
+			scheduled.put(task, Scheduler.schedule(task.getElapseTime(), entry -> runTask(task, entry)));
+		}
+	}
+
+	//logic behind scheduled events, called by the scheduler when the task elapses
+	private void runTask(Task elapsed, Scheduler.Entry fired) {
+		//the task was removed or rescheduled while this activation was on its way, the new entry (if any) stays
+		synchronized(scheduled) {
+			if(scheduled.get(elapsed) != fired) {
+				return;
 			}
+			scheduled.remove(elapsed);
+		}
 
-			Task elapsed = getElapsed();
-			if (elapsed != null) {
-				log.addMsg("TASK", "'" + elapsed.getName() + "' has activated.");
-				switch (elapsed.getType()) {
-					case NONE:
-						break;
+		//task was disabled after it was scheduled
+		if(!elapsed.isEnabled()) {
+			return;
+		}
 
-					case START:
-						start();
-						break;
+		log.addMsg("TASK", "'" + elapsed.getName() + "' has activated.");
+		switch (elapsed.getType()) {
+			case NONE:
+				break;
 
-					case STOP:
-						stop();
-						break;
+			case START:
+				start();
+				break;
 
-					case RESTART:
-						restart();
-						break;
+			case STOP:
+				stop();
+				break;
 
-					case SIGNAL:
-						io.write(elapsed.getSignal());
-						break;
-				}
-				elapsed.reset();
+			case RESTART:
+				restart();
+				break;
 
-				//remove if one-time task
-				if (!elapsed.isEnabled()) {
-					tasks.remove(elapsed);
-				} else {
-					log.addMsg("TASK", "'" + elapsed.getName() + "' has been reset.");
+			case SIGNAL:
+				if(io != null) {
+					io.write(elapsed.getSignal());
 				}
-			}
+				break;
 		}
+		elapsed.reset();
 
-		//if no tasks are pending, thread will exit
-		scheduleRunning = false;
+		//remove if one-time task
+		if (!elapsed.isEnabled()) {
+			tasks.remove(elapsed);
+		} else {
+			log.addMsg("TASK", "'" + elapsed.getName() + "' has been reset.");
+			scheduleTask(elapsed);
+		}
 	}
-	//helper function for scheduling thread
-	private LocalDateTime waitTime() {
-		LocalDateTime toReturn = null;
 
-		//find the next task to be executed
-		for(var task : tasks) {
-			if(task.isEnabled() && task.isEnabled()) {
-				if(toReturn == null) {
-					toReturn = task.getElapseTime();
-				} else if(task.getElapseTime().isBefore(toReturn)) {
-					toReturn = task.getElapseTime();
-				}
-			}
-		}
+	//called once the child process exits, whether it crashed, was killed or finished normally
+	private void exitHandler(Process exited) {
+		//let the capture threads flush whatever the process wrote before it exited
+		joinCapture();
 
-		return toReturn;
-	}
-	//helper function for scheduling thread
-	private Task getElapsed() {
-		for(var task : tasks) {
-			if(task.isEnabled() && task.isElapsed()) {
-				return task;
+		synchronized(this) {
+			//process was stopped on purpose or has already been replaced by a restart
+			if(!running || exited != proc) {
+				return;
 			}
-		}
 
-		//no elapsed task could be found
-		return null;
-	}
+			Duration uptime = Duration.ofNanos(System.nanoTime() - startedAt);
+			String reason = "exited with code " + exited.exitValue() + " after " + uptime.toMillis() + " ms";
+			log.addMsg("Process has exited.");
+			stop();
 
-	//monitor process's running status from a separate thread
-	private void statusThread() {
-		while(running) {
-			while (io.hasErr()) {
-				log.addMsg("STDERR", io.readErr());
+			if(!autoRestart) {
+				return;
 			}
-			while (io.hasOut()) {
-				log.addMsg("STDOUT", io.readOut());
+
+			Duration delay = supervisor.exited(uptime);
+			if(delay == null) {
+				log.addMsg("SUPERVISOR", "Process " + reason + ", giving up after " + supervisor.getMaxRestarts()
+					+ " restarts within " + supervisor.getWindow().toSeconds() + " s. Start it by hand to try again.");
+				return;
 			}
+			log.addMsg("SUPERVISOR", "Process " + reason + ", restarting in " + delay.toMillis() + " ms.");
+			pendingRestart = Scheduler.schedule(delay, this::supervisedRestart);
+		}
+	}
 
-			//program has crashed or been killed
-			if (!proc.isAlive()) {
-				log.addMsg("Process has exited.");
-				stop();
+	//backoff elapsed, restart unless the process was stopped, started or had auto-restart turned off in the meantime
+	private synchronized void supervisedRestart(Scheduler.Entry fired) {
+		//cancelled after the timer had already handed it to the pool
+		if(pendingRestart != fired) {
+			return;
+		}
+		pendingRestart = null;
+		if(!running && autoRestart) {
+			launch();
+		}
+	}
 
-				if (autoRestart) {
-					start();
-				}
+	private void cancelRestart() {
+		if(pendingRestart != null) {
+			pendingRestart.cancel();
+			pendingRestart = null;
+		}
+	}
 
-			} else {
-				//Program is running but no action is required
-				try {
-					TimeUnit.MILLISECONDS.sleep(50);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+	//wait a short time for the capture tasks to reach the end of their streams
+	private void joinCapture() {
+		try {
+			if(outCapture != null) {
+				outCapture.get(1, TimeUnit.SECONDS);
 			}
+			if(errCapture != null) {
+				errCapture.get(1, TimeUnit.SECONDS);
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch(ExecutionException | TimeoutException e) {
+			//capture is still blocked (a grandchild may hold the pipe open), carry on with exit handling
 		}
 	}
 
 	//default stop process (unsafe, no saving)
 	public synchronized void stop() {
+		cancelRestart();
 		if(running) {
-			io.destroy();
+			//kill the process first so the capture threads see end of stream
 			proc.destroy();
+			io.destroy();
 			running = false;
-			scheduleRunning = false;
-
-			if(schedulingThread != null) {
-				schedulingThread.interrupt();
-			}
 		}
 	}
 
-	//default start process
+	//default start process, a start by hand also clears the supervisor's crash history
 	public synchronized void start() {
+		cancelRestart();
+		supervisor.reset();
+		launch();
+	}
+
+	private void launch() {
 		if(!running) {
 			try {
 				log.addMsg("Process is starting.");
@@ -195,13 +253,17 @@ public class Proc {
 				ProcessBuilder temp = new ProcessBuilder(processArgs);
 				running = true;
 				proc = temp.start();
+				startedAt = System.nanoTime();
 
 				//create IO manager for process
-				io = new ProcIO(proc.getOutputStream(), proc.getInputStream(), proc.getErrorStream());
+				io = new ProcIO(managerName, proc.getOutputStream(), proc.getInputStream(), proc.getErrorStream(), charset);
+				io.setOutputLimit(limit);
 
-				//monitor process
-				monitorThread = new Thread(this::statusThread);
-				monitorThread.start();
+				//capture output as it is written and get notified on exit instead of polling
+				final ProcIO capture = io;
+				outCapture = ProcPool.submit(() -> capture.capture(false, log::addMsg));
+				errCapture = ProcPool.submit(() -> capture.capture(true, log::addMsg));
+				proc.onExit().thenAcceptAsync(this::exitHandler, ProcPool.executor());
 
 			} catch (IOException e) {
 				log.addMsg("ERROR", "Unable to start process: " + processArgs.get(0) + ".");
@@ -227,24 +289,33 @@ public class Proc {
 	   auto-restart: autoRestart(boolean)
 	   tasks: tasks(array of ScheduledTask)
 	 */
-	public JSONObject serialize() {
-		JSONObject record = new JSONObject();
-		record.put("type", "process");
-		record.put("name", managerName);
-		JSONArray args = new JSONArray();
-		args.putAll(processArgs);
-		record.put("args", processArgs);
-		record.put("logging-dir", log.getDir());
-		record.put("auto-restart", autoRestart);
-
-		JSONArray taskList = new JSONArray();
-
-		for(var task : tasks) {
-			taskList.put(task.serialize());
+	public void serialize(JsonWriter out) {
+		out.beginObject();
+		out.name("type").value("process");
+		out.name("name").value(managerName);
+		out.name("args").beginArray();
+		for(var arg : processArgs) {
+			out.value(arg);
 		}
-		record.put("tasks", taskList);
+		out.endArray();
+		out.name("logging-dir").value(log.getDir());
+		out.name("auto-restart").value(autoRestart);
+
+		out.name("tasks").beginArray();
+		synchronized(tasks) {
+			for(var task : tasks) {
+				task.write(out);
+			}
+		}
+		out.endArray();
+		out.endObject();
+	}
 
-		return record;
+	//same record as a JSONObject tree, prefer serialize(JsonWriter) when the result is only going to be sent
+	public JSONObject serialize() {
+		JsonWriter out = new JsonWriter();
+		serialize(out);
+		return new JSONObject(out.toString());
 	}
 
 	//process getter/setters
@@ -257,14 +328,63 @@ public class Proc {
 	public void enableAutorestart() {
 		autoRestart = true;
 	}
-	public void disableAutorestart() {
+	public synchronized void disableAutorestart() {
 		autoRestart = false;
+		cancelRestart();
+	}
+	//backoff and restart limits for auto-restart, replacing the policy clears the crash history
+	public synchronized void setSupervisorPolicy(Supervisor.Policy policy) {
+		supervisor = new Supervisor(policy);
+	}
+	public synchronized Supervisor getSupervisor() {
+		return supervisor;
+	}
+	//a restart is waiting out its backoff
+	public synchronized boolean isRestartPending() {
+		return pendingRestart != null;
+	}
+	//output drained from the pipes but not logged yet, and how often it overflowed to disk (current run)
+	public long getBufferedOutput() {
+		ProcIO current = io;
+		return current == null ? 0 : current.getBufferedOutput();
+	}
+	public long getOutputSpills() {
+		ProcIO current = io;
+		return current == null ? 0 : current.getSpills();
+	}
+	public long getSpilledOutputBytes() {
+		ProcIO current = io;
+		return current == null ? 0 : current.getSpilledBytes();
+	}
+	//rate limit, sample and collapse captured output, counters start over with every new policy
+	public synchronized void setOutputPolicy(OutputLimit.Policy policy) {
+		limit = policy.isUnlimited() ? null : new OutputLimit(policy);
+		if(io != null) {
+			io.setOutputLimit(limit);
+		}
+	}
+	//null when output isn't limited
+	public OutputLimit getOutputLimit() {
+		return limit;
+	}
+	public Charset getCharset() {
+		return charset;
+	}
+	//takes effect the next time the process starts
+	public void setCharset(Charset charset) {
+		this.charset = charset;
 	}
 
 	//logging getter/setters
 	public void disableTimestamp() {
 		log.disableTimestamp();
 	}
+	public void enableLazyFormat() {
+		log.enableLazyFormat();
+	}
+	public void disableLazyFormat() {
+		log.disableLazyFormat();
+	}
 	public void enableTimestamp() {
 		log.enableTimestamp();
 	}
@@ -277,6 +397,51 @@ public class Proc {
 	public void disableLogfile() {
 		log.disableLogFile();
 	}
+	public void enableHistory() {
+		log.enableHistory();
+	}
+	public void disableHistory() {
+		log.disableHistory();
+	}
+	public LogSubscription subscribe(Consumer<Message> sink, int capacity, LogSubscription.Overflow overflow) {
+		return log.subscribe(sink, capacity, overflow);
+	}
+	public void unsubscribe(LogSubscription subscription) {
+		log.unsubscribe(subscription);
+	}
+	public String getName() {
+		return managerName;
+	}
+	public boolean hasHistory() {
+		return log.hasHistory();
+	}
+	public long firstHistoryLine() {
+		return log.firstHistoryLine();
+	}
+	public List<LogEntry> getHistory(long line, int count) {
+		return log.getHistory(line, count);
+	}
+	public long findHistoryLine(LocalDateTime time) {
+		return log.findHistoryLine(time);
+	}
+	public List<LogEntry> queryLog(LogQuery query) {
+		return log.search(query);
+	}
+	public void enableSearchIndex() {
+		log.enableSearchIndex();
+	}
+	public void disableSearchIndex() {
+		log.disableSearchIndex();
+	}
+	public void enableHistoryCompression() {
+		log.enableHistoryCompression();
+	}
+	public void disableHistoryCompression() {
+		log.disableHistoryCompression();
+	}
+	public void setLogPolicy(LogWriter.Policy policy) {
+		log.setLogPolicy(policy);
+	}
 	public void enableStdout() {
 		log.enableStdout();
 	}
@@ -286,4 +451,7 @@ public class Proc {
 	public String[] getLog() {
 		return log.getCache();
 	}
+	public LogRing.Page<LogEntry> getLogSince(long seq, int max) {
+		return log.getCacheSince(seq, max);
+	}
 }
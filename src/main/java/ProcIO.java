@@ -1,95 +1,324 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
+/* PIPES
+each pipe is handled on its own, nothing here is shared between them:
+	stdout/stderr: one capture task per stream reads the pipe in 64 KiB blocks (always the same block) and splits
+	               lines out of it in place. while the log keeps up, lines are decoded and logged straight from the
+	               block. once the pipe holds more than the log has taken, new lines go to a SpillBuffer (memory, then
+	               a temporary file) and the task alternates between taking in everything the pipe holds and logging
+	               one block's worth of the backlog, so a slow log only makes the child wait for one batch, and a
+	               burst on one stream never holds up the other
+	stdin: writers only queue their bytes, a single drain task on the process pool writes everything queued in
+	       order and flushes once, so a child that is slow to read stdin never blocks a caller (signals, tasks)
+
+lines pass the output limit (if there is one) as they are split out of the block, dropped lines are never decoded,
+buffered or logged
+
+backlog records: kind byte, length int, then
+	LINE: the line's bytes (undecoded)
+	NOTICE: info length byte + info + text (utf-8), notices from the output limit
+ */
+
+//pipes of a running child: output is read in large blocks and split into lines, stdin gets the caller's bytes as they are
 public class ProcIO {
+	private static final int MAX_STDIN = 1024 * 1024; //bytes queued for stdin before writes are refused
+	private static final int RECORD_HEADER = 5;
+	private static final byte LINE = 0;
+	private static final byte NOTICE = 1;
+
 	private final OutputStream out;
-	private final BufferedReader in;
-	private final BufferedReader err;
+	private final InputStream rawIn;
+	private final InputStream rawErr;
+	private final Charset charset;
+	private final Capture outCapture;
+	private final Capture errCapture;
 
-	//starts IO threads and assigns default values
-	ProcIO(OutputStream outstream, InputStream instream, InputStream errstream) {
-		out = outstream;
-		in = new BufferedReader(new InputStreamReader(instream));
-		err = new BufferedReader(new InputStreamReader(errstream));
-	}
+	//writes waiting for the stdin drain task
+	private final Queue<byte[]> stdin = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger stdinBytes = new AtomicInteger();
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	private volatile boolean outClosed = false;
+	private volatile OutputLimit limit = null;
 
-	//write message to process stdin
-	public synchronized void write(String data) {
-		try {
-			out.write((data + "\n").getBytes());
-			out.flush();
-		} catch(IOException e) {
-			//This will happen if the IO channel is closed, log messages will just be clutter
+	//one output stream: its pipe, the reader splitting it and the backlog the log hasn't taken yet
+	private class Capture implements OutputLimit.Sink {
+		final String info;
+		final InputStream source;
+		final LineReader reader;
+		final SpillBuffer backlog;
+		BiConsumer<String, String> sink;
+
+		//lines of the last block as records, logged from here or added to the backlog
+		byte[] staged = new byte[LineReader.BLOCK_SIZE + 1024];
+		int stagedLength = 0;
+
+		//records taken from the backlog that haven't been logged yet, always room for the largest record
+		final byte[] pending = new byte[2 * (LineReader.MAX_LINE + RECORD_HEADER)];
+		int pendingStart = 0;
+		int pendingEnd = 0;
+
+		Capture(String name, String info, InputStream source) {
+			this.info = info;
+			this.source = source;
+			reader = new LineReader(source, charset);
+			backlog = new SpillBuffer(name, Main.State.outputMemory, Main.State.outputSpillLimit);
 		}
-	}
-	public synchronized void write(byte[] data) {
-		try {
-			out.write((new String(data) + "\n").getBytes());
-			out.flush();
-		} catch(IOException e) {
-			//This will happen if the IO channel is closed, log messages will just be clutter
+
+		void run(BiConsumer<String, String> sink) {
+			this.sink = sink;
+			try {
+				while(true) {
+					if(backlog.isEmpty()) {
+						//nothing waiting, block on the pipe and log straight from the block if that was everything
+						if(!reader.readLines(this::split)) {
+							break;
+						}
+						if(reader.available() == 0) {
+							logStaged();
+							continue;
+						}
+						spillStaged();
+					}
+
+					//behind: take in what the pipe already holds (up to the spill limit), then log one block of backlog
+					while(!backlog.isFull() && reader.available() > 0) {
+						reader.readLines(this::split);
+						spillStaged();
+					}
+					logBacklog(LineReader.BLOCK_SIZE);
+				}
+			} catch(IOException e) {
+				//This will happen if the IO channel is closed, log messages will just be clutter
+			}
+
+			//the pipe is done (or closed), whatever was already taken in still reaches the log
+			try {
+				flushLimit();
+				spillStaged();
+				logBacklog(Long.MAX_VALUE);
+			} catch(IOException e) {
+				System.err.println("[MASTER]: unable to read back spilled output for " + info);
+			}
+			backlog.close();
 		}
-	}
-	public synchronized void write(char[] data) {
-		try {
-			out.write((new String(data) + "\n").getBytes());
-			out.flush();
-		} catch(IOException e) {
-			//This will happen if the IO channel is closed, log messages will just be clutter
+
+		//a line split out of the pipe, checked against the output limit before anything else happens to it
+		void split(byte[] block, int offset, int length) throws IOException {
+			OutputLimit current = limit;
+			if(current == null) {
+				line(block, offset, length);
+			} else {
+				current.offer(info, this == errCapture, block, offset, length, this);
+			}
 		}
-	}
 
-	//read line from process stdout
-	public synchronized String readOut() {
-		String line = null;
+		//the limit may still owe repeat counts and a dropped lines notice
+		void flushLimit() throws IOException {
+			OutputLimit current = limit;
+			if(current != null) {
+				current.flush(info, this == errCapture, this);
+			}
+		}
 
-		try {
-			line = in.readLine();
-		} catch(IOException e) {
-			//This will happen if the IO channel is closed, log messages will just be clutter
+		public void line(byte[] block, int offset, int length) {
+			stage(LINE, block, offset, length);
 		}
 
-		return line;
-	}
+		public void notice(String info, String text) {
+			byte[] name = info.getBytes(StandardCharsets.UTF_8);
+			byte[] body = text.getBytes(StandardCharsets.UTF_8);
+			byte[] payload = new byte[1 + name.length + body.length];
+			payload[0] = (byte) name.length;
+			System.arraycopy(name, 0, payload, 1, name.length);
+			System.arraycopy(body, 0, payload, 1 + name.length, body.length);
+			stage(NOTICE, payload, 0, payload.length);
+		}
 
-	//check if stdout has data
-	public synchronized boolean hasOut() {
-		boolean data = false;
-		try {
-			data = in.ready();
-		} catch(IOException e) {
-			//This will happen if the IO channel is closed, log messages will just be clutter
+		//add a record to the staged ones
+		void stage(byte kind, byte[] block, int offset, int length) {
+			if(stagedLength + RECORD_HEADER + length > staged.length) {
+				staged = Arrays.copyOf(staged, Math.max(staged.length * 2, stagedLength + RECORD_HEADER + length));
+			}
+			staged[stagedLength] = kind;
+			putInt(staged, stagedLength + 1, length);
+			System.arraycopy(block, offset, staged, stagedLength + RECORD_HEADER, length);
+			stagedLength += RECORD_HEADER + length;
 		}
 
-		return data;
-	}
+		void logStaged() {
+			int position = 0;
+			while(position < stagedLength) {
+				position += log(staged, position);
+			}
+			stagedLength = 0;
+		}
 
-	//read line from stderr
-	public synchronized String readErr() {
-		String line = null;
+		//decode one record and hand it to the sink, returns its size
+		int log(byte[] records, int at) {
+			int length = getInt(records, at + 1);
+			int start = at + RECORD_HEADER;
+			if(records[at] == LINE) {
+				sink.accept(info, new String(records, start, length, charset));
+			} else {
+				int name = records[start] & 0xFF;
+				sink.accept(new String(records, start + 1, name, StandardCharsets.UTF_8),
+					new String(records, start + 1 + name, length - 1 - name, StandardCharsets.UTF_8));
+			}
+			return RECORD_HEADER + length;
+		}
 
-		try {
-			line = err.readLine();
-		} catch(IOException e) {
-			//This will happen if the IO channel is closed, log messages will just be clutter
+		void spillStaged() throws IOException {
+			backlog.write(staged, 0, stagedLength);
+			stagedLength = 0;
 		}
 
-		return line;
+		//log records from the backlog until at least budget bytes have been taken or it is empty
+		void logBacklog(long budget) throws IOException {
+			long taken = 0;
+			while(taken < budget) {
+				//compact and refill once the next record isn't complete
+				if(pendingStart > 0) {
+					System.arraycopy(pending, pendingStart, pending, 0, pendingEnd - pendingStart);
+					pendingEnd -= pendingStart;
+					pendingStart = 0;
+				}
+				int read = backlog.read(pending, pendingEnd, pending.length - pendingEnd);
+				pendingEnd += read;
+				taken += read;
+
+				while(pendingEnd - pendingStart >= RECORD_HEADER) {
+					int length = getInt(pending, pendingStart + 1);
+					if(pendingEnd - pendingStart < RECORD_HEADER + length) {
+						break;
+					}
+					pendingStart += log(pending, pendingStart);
+				}
+
+				if(read == 0) {
+					return;
+				}
+			}
+		}
 	}
 
-	//check if stderr has data
-	public synchronized boolean hasErr() {
-		boolean data = false;
-		try {
-			data = err.ready();
-		} catch(IOException e) {
-			//This will happen if the IO channel is closed, log messages will just be clutter
+	//starts no threads: Proc runs capture() for each stream on ProcPool, stdin is drained there as writes come in
+	ProcIO(String name, OutputStream outstream, InputStream instream, InputStream errstream, Charset charset) {
+		out = outstream;
+		rawIn = instream;
+		rawErr = errstream;
+		this.charset = charset;
+		outCapture = new Capture(name + "-stdout", "STDOUT", instream);
+		errCapture = new Capture(name + "-stderr", "STDERR", errstream);
+	}
+
+	//read stdout (or stderr) until the pipe ends, handing each line to sink(info, line), run one per stream
+	//blocks on the pipe only while nothing is waiting to be logged, so idle processes cost nothing
+	public void capture(boolean stderr, BiConsumer<String, String> sink) {
+		(stderr ? errCapture : outCapture).run(sink);
+	}
+
+	//rate limit, sample and collapse output as it is read, null for none
+	public void setOutputLimit(OutputLimit limit) {
+		this.limit = limit;
+	}
+
+	//output read from the pipes that the log hasn't taken yet (memory and disk)
+	public long getBufferedOutput() {
+		return outCapture.backlog.getBuffered() + errCapture.backlog.getBuffered();
+	}
+	//times either stream started spilling to disk
+	public long getSpills() {
+		return outCapture.backlog.getSpills() + errCapture.backlog.getSpills();
+	}
+	public long getSpilledBytes() {
+		return outCapture.backlog.getSpilledBytes() + errCapture.backlog.getSpilledBytes();
+	}
+
+	private static void putInt(byte[] target, int at, int value) {
+		target[at] = (byte) (value >>> 24);
+		target[at + 1] = (byte) (value >>> 16);
+		target[at + 2] = (byte) (value >>> 8);
+		target[at + 3] = (byte) value;
+	}
+
+	private static int getInt(byte[] source, int at) {
+		return (source[at] & 0xFF) << 24 | (source[at + 1] & 0xFF) << 16 | (source[at + 2] & 0xFF) << 8 | (source[at + 3] & 0xFF);
+	}
+
+	//write message to process stdin, encoded with the process's charset
+	public boolean write(String data) {
+		return write(data.getBytes(charset));
+	}
+	public boolean write(char[] data) {
+		ByteBuffer encoded = charset.encode(CharBuffer.wrap(data));
+		byte[] bytes = new byte[encoded.remaining()];
+		encoded.get(bytes);
+		return write(bytes);
+	}
+	//queue bytes for stdin (sent untouched, followed by a newline), false if stdin is closed or too far behind
+	public boolean write(byte[] data) {
+		if(outClosed) {
+			return false;
+		}
+		if(stdinBytes.addAndGet(data.length + 1) > MAX_STDIN) {
+			stdinBytes.addAndGet(-(data.length + 1));
+			return false;
 		}
 
-		return data;
+		stdin.add(data);
+		if(draining.compareAndSet(false, true)) {
+			ProcPool.submit(this::drainStdin);
+		}
+		return true;
+	}
+
+	//bytes waiting to be written to stdin
+	public int getQueuedInput() {
+		return stdinBytes.get();
+	}
+
+	//write everything queued in order with a single flush, runs on the process pool
+	private void drainStdin() {
+		while(true) {
+			byte[] data;
+			try {
+				while((data = stdin.poll()) != null) {
+					stdinBytes.addAndGet(-(data.length + 1));
+					out.write(data);
+					out.write('\n');
+				}
+				out.flush();
+			} catch(IOException e) {
+				//This will happen if the IO channel is closed, log messages will just be clutter
+				outClosed = true;
+				stdin.clear();
+				stdinBytes.set(0);
+			}
+
+			draining.set(false);
+
+			//a write may have been queued after the last poll but before draining was cleared
+			if(stdin.isEmpty() || !draining.compareAndSet(false, true)) {
+				return;
+			}
+		}
 	}
 
-	//close output to stdin
-	public synchronized void closeOut() {
+	//close output to stdin, anything still queued is dropped
+	public void closeOut() {
+		outClosed = true;
+		stdin.clear();
+		stdinBytes.set(0);
 		try {
 			out.close();
 		} catch(IOException e) {
@@ -97,26 +326,26 @@ public class ProcIO {
 		}
 	}
 
-	//close input from stdout
-	public synchronized void closeIn() {
+	//close input from stdout (capture stops, whatever it already took in is still logged)
+	public void closeIn() {
 		try {
-			in.close();
+			rawIn.close();
 		} catch(IOException e) {
 			//this happens when the program has already exited
 		}
 	}
 
 	//close input from stderr
-	public synchronized void closeErr() {
+	public void closeErr() {
 		try {
-			err.close();
+			rawErr.close();
 		} catch(IOException e) {
 			//this happens when the program has already exited
 		}
 	}
 
 	//close all outputs and inputs
-	public synchronized void destroy() {
+	public void destroy() {
 		closeOut();
 		closeIn();
 		closeErr();
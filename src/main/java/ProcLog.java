@@ -1,22 +1,29 @@
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 public class ProcLog {
 	private String logFilePath;
 	private final String managerID;
-	private BufferedWriter logOut = null;
+	private LogWriter logOut = null;
+	private LogWriter.Policy logPolicy = LogWriter.DEFAULT_POLICY;
+	private LogStore history = null;
+	private boolean searchIndex = false;
+	private boolean compressHistory = false;
 
 	private boolean logfile = false;
 	private boolean timestamp = true;
 	private boolean stdout = false;
+	private boolean lazyFormat = false;
 
-	private final Deque<String> logCache = new LinkedList<String>();
+	private final List<LogSubscription> subscribers = new CopyOnWriteArrayList<>();
+	private volatile LogRing<LogEntry> logCache = new LogRing<>(1024);
 	private int cacheLimit = 1024;
 
 	ProcLog(String managerName) {
@@ -24,11 +31,10 @@ public class ProcLog {
 		managerID = managerName;
 	}
 
-	//TODO - dump cache to file efficiently instead of writing one at a time
 	//TODO - priority logging messages, Different priority levels will be written to different sources but all will be saved in history
 
 	//sets up the logger for writing to a file instead of stdout
-	public void enableLogfile() {
+	public synchronized void enableLogfile() {
 		if(logfile) {
 			return;
 		}
@@ -45,7 +51,7 @@ public class ProcLog {
 				}
 			}
 			//open a writer to the file
-			logOut = new BufferedWriter(new FileWriter(checkFile, true));
+			logOut = new LogWriter(checkFile.toPath(), logPolicy);
 		} catch(IOException e) {
 			System.err.println(managerID + ": unable to create logfile. File logging disabled.");
 			logfile = false;
@@ -55,7 +61,7 @@ public class ProcLog {
 	}
 
 	//enable log file with a string
-	public void enableLogfile(String newPath) {
+	public synchronized void enableLogfile(String newPath) {
 		if(logfile) {
 			return;
 		}
@@ -67,18 +73,121 @@ public class ProcLog {
 	}
 
 	//close output stream to file and disable file logging
-	public void disableLogFile() {
+	public synchronized void disableLogFile() {
 		if(!logfile) {
 			return;
 		}
 
 		logfile = false;
 		if(logOut != null) {
-			try {
-				logOut.close();
-			} catch (IOException e) {
-				//this is called when the file is already closed
+			logOut.close();
+			logOut = null;
+		}
+	}
+
+	//keep every entry in a segmented history store next to the logfile (<name>.history)
+	public void enableHistory() {
+		enableHistory(64 * 1024 * 1024, 24L * 60 * 60 * 1000);
+	}
+
+	//segmentBytes: size a history segment grows to before a new one is started, segmentAge: same in milliseconds
+	public synchronized void enableHistory(int segmentBytes, long segmentAge) {
+		if(history != null) {
+			return;
+		}
+
+		String directory = logFilePath.endsWith(".log") ? logFilePath.substring(0, logFilePath.length() - 4) : logFilePath;
+		try {
+			history = new LogStore(directory + ".history", managerID, segmentBytes, segmentAge);
+			if(searchIndex) {
+				history.enableTextIndex();
+			}
+			if(compressHistory) {
+				history.enableCompression();
 			}
+		} catch(IOException e) {
+			System.err.println(managerID + ": unable to open log history. History disabled.");
+		}
+	}
+
+	public synchronized void disableHistory() {
+		if(history != null) {
+			history.close();
+			history = null;
+		}
+	}
+
+	public boolean hasHistory() {
+		return history != null;
+	}
+
+	//line number of the oldest history entry still on disk, -1 if history isn't enabled
+	public long firstHistoryLine() {
+		var store = history;
+		return store == null ? -1 : store.firstLine();
+	}
+
+	//read count entries from the history starting at line number line
+	public List<LogEntry> getHistory(long line, int count) {
+		var store = history;
+		return store == null ? List.of() : store.read(line, count);
+	}
+
+	//line number of the first history entry at or after time
+	public long findHistoryLine(LocalDateTime time) {
+		var store = history;
+		if(store == null) {
+			return 0;
+		}
+
+		Instant instant = time.atZone(ZoneId.systemDefault()).toInstant();
+		return store.findLine(instant.getEpochSecond() * 1_000_000_000L + instant.getNano());
+	}
+
+	//search the history, or the in-memory cache if history isn't enabled
+	public List<LogEntry> search(LogQuery query) {
+		var store = history;
+		if(store != null) {
+			return store.search(query);
+		}
+
+		List<LogEntry> result = new ArrayList<>();
+		for(var entry : logCache.snapshot().entries) {
+			if(query.inRange(entry) && query.matches(entry)) {
+				result.add(entry);
+				if(result.size() >= query.getLimit()) {
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	//maintain a trigram index over sealed history segments to speed up substring searches
+	public synchronized void enableSearchIndex() {
+		searchIndex = true;
+		if(history != null) {
+			history.enableTextIndex();
+		}
+	}
+	public synchronized void disableSearchIndex() {
+		searchIndex = false;
+		if(history != null) {
+			history.disableTextIndex();
+		}
+	}
+
+	//compress history segments once they are rolled
+	public synchronized void enableHistoryCompression() {
+		compressHistory = true;
+		if(history != null) {
+			history.enableCompression();
+		}
+	}
+	public synchronized void disableHistoryCompression() {
+		compressHistory = false;
+		if(history != null) {
+			history.disableCompression();
 		}
 	}
 
@@ -87,35 +196,67 @@ public class ProcLog {
 		if(logOut != null) {
 			disableLogFile();
 		}
+		disableHistory();
 	}
 
-	//add message to the cache and automatically remove expired messages
-	private void cache(String msg) {
-		logCache.addLast(msg);
+	//add message to the cache and automatically remove expired messages (stdout and stderr are captured concurrently)
+	private synchronized void cache(LogEntry entry) {
+		//the ring overwrites the oldest entry once it is full
+		long seq = logCache.getHead();
+		logCache.append(entry);
 
-		if(logCache.size() > cacheLimit) {
-			logCache.removeFirst();
+		//format now unless formatting is deferred until the line is read or written
+		if(!lazyFormat) {
+			entry.line();
 		}
 
 		//logfiles and stdout are updated upon new message cached
 		if(logfile) {
+			logOut.append(entry);
+		}
+		if(history != null) {
 			try {
-				logOut.write(msg + "\n");
-				logOut.flush();
+				history.append(entry);
 			} catch(IOException e) {
-				System.err.println(managerID + ": unable to write to logfile.");
+				System.err.println(managerID + ": unable to write to log history. History disabled.");
+				disableHistory();
 			}
 		}
 		if(stdout) {
-			System.out.println(msg);
+			System.out.println(entry.line());
+		}
+
+		//built once no matter how many clients are subscribed, each wire format is encoded once on first use
+		if(!subscribers.isEmpty()) {
+			Message frame = Message.logPush(managerID, seq, entry);
+			for(var subscriber : subscribers) {
+				subscriber.offer(frame);
+			}
 		}
 	}
 
+	//push new entries to sink as they are cached
+	public LogSubscription subscribe(Consumer<Message> sink, int capacity, LogSubscription.Overflow overflow) {
+		LogSubscription subscription = new LogSubscription(this, managerID, sink, capacity, overflow);
+		subscribers.add(subscription);
+		return subscription;
+	}
+
+	public void unsubscribe(LogSubscription subscription) {
+		subscription.close();
+	}
+
+	//called by LogSubscription.close(), however the subscription was closed
+	void detach(LogSubscription subscription) {
+		subscribers.remove(subscription);
+	}
+
 	//print message queue
-	public void printCache() {
-		System.out.println("Cache size: " + logCache.size());
+	public synchronized void printCache() {
+		var page = logCache.snapshot();
+		System.out.println("Cache size: " + page.entries.size());
 
-		for(var msg : logCache) {
+		for(var msg : page.entries) {
 			System.out.println(msg);
 		}
 
@@ -124,26 +265,26 @@ public class ProcLog {
 
 	//return the current iteration of the cache for sending to clients
 	public String[] getCache() {
-		return logCache.toArray(new String[logCache.size()]);
+		var entries = logCache.snapshot().entries;
+		String[] lines = new String[entries.size()];
+		for(int i = 0; i < lines.length; i++) {
+			lines[i] = entries.get(i).line();
+		}
+		return lines;
+	}
+
+	//return cached entries from sequence number seq onwards, used to tail the log without re-reading the whole cache
+	public LogRing.Page<LogEntry> getCacheSince(long seq, int max) {
+		return logCache.since(seq, max);
 	}
 
 	//add log entry (stdout)
 	public void addMsg(String msg) {
-		String currentTime = "";
-		if(timestamp) {
-			currentTime = (LocalDateTime.now()).format(DateTimeFormatter.ofPattern("MM-dd-yy HH:mm:ss.SS - "));
-		}
-
-		cache(currentTime + "[" + managerID + "]: " + msg);
+		cache(new LogEntry(managerID, null, msg, timestamp));
 	}
 
 	public void addMsg(String info, String msg) {
-		String currentTime = "";
-		if(timestamp) {
-			currentTime = (LocalDateTime.now()).format(DateTimeFormatter.ofPattern("MM-dd-yy HH:mm:ss.SS - "));
-		}
-
-		cache(currentTime + "[" + managerID + "][" + info + "]: " + msg);
+		cache(new LogEntry(managerID, info, msg, timestamp));
 	}
 
 	public void enableTimestamp() {
@@ -152,6 +293,17 @@ public class ProcLog {
 	public void disableTimestamp() {
 		timestamp = false;
 	}
+	//change how batched lines are flushed to the logfile, takes effect the next time the logfile is opened
+	public void setLogPolicy(LogWriter.Policy policy) {
+		logPolicy = policy;
+	}
+	//store raw entries and only build the text line when it's read, written to file or printed
+	public void enableLazyFormat() {
+		lazyFormat = true;
+	}
+	public void disableLazyFormat() {
+		lazyFormat = false;
+	}
 	public String getDir() {
 		return logFilePath;
 	}
@@ -164,12 +316,16 @@ public class ProcLog {
 	public int getCacheLimit() {
 		return cacheLimit;
 	}
-	public void setCacheLimit(int limit) {
+	public synchronized void setCacheLimit(int limit) {
 		cacheLimit = limit;
 
 		//to prevent odd behavior from negative caching limits
 		if(cacheLimit < 1024) {
 			cacheLimit = 1024;
 		}
+
+		if(cacheLimit != logCache.getCapacity()) {
+			logCache = logCache.resize(cacheLimit);
+		}
 	}
 }
@@ -0,0 +1,65 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//server-wide pools shared by every managed process
+//blocking work (reading a child's pipes, writing its stdin) always runs on platform threads: pipe reads pin a virtual
+//thread to its carrier, and enough idle children would pin every carrier and starve everything else on the pool.
+//they are small-stack daemon threads in a cached pool, reused across restarts, one per stream of a running process.
+//that is one thread more per process than the old monitor thread, what it saves is the 50 ms polling, an idle process
+//costs no CPU (see ProcPoolBenchmark)
+//short callbacks (exit handling, scheduler actions, log pushes, segment sealing) get a virtual thread each on JDK 21+
+//and share the platform pool before that
+public class ProcPool {
+	private static final long STACK_SIZE = 256 * 1024;
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+	private static final boolean virtual;
+	private static final ExecutorService blocking;
+	private static final ExecutorService callbacks;
+
+	static {
+		//idle threads are released after a minute so a quiet server shrinks back down
+		blocking = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), task -> {
+			Thread thread = new Thread(null, task, "proc-io-" + threadCount.incrementAndGet(), STACK_SIZE);
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		ThreadFactory factory = Main.State.virtualThreads ? virtualFactory() : null;
+		virtual = factory != null;
+		callbacks = virtual ? new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), factory) : blocking;
+	}
+
+	//look up Thread.ofVirtual() reflectively so the server still builds and runs on older JDKs
+	private static ThreadFactory virtualFactory() {
+		try {
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "proc-callback-", 0L);
+			return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+		} catch(ReflectiveOperationException | RuntimeException e) {
+			//virtual threads are not available on this JDK
+			return null;
+		}
+	}
+
+	//run a long-lived blocking task (stream capture, stdin drain) on a platform thread
+	public static Future<?> submit(Runnable task) {
+		return blocking.submit(task);
+	}
+
+	//executor for short callbacks such as exit handling, must not be used for anything that blocks on a pipe
+	public static Executor executor() {
+		return callbacks;
+	}
+
+	//whether callbacks run on virtual threads, blocking tasks never do
+	public static boolean isVirtual() {
+		return virtual;
+	}
+
+	//number of platform threads currently owned by the pool (virtual callback threads are not counted)
+	public static int poolSize() {
+		return ((ThreadPoolExecutor) blocking).getPoolSize();
+	}
+}
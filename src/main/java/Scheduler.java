@@ -0,0 +1,211 @@
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+//single server-wide timer shared by every Proc, entries are kept in priority queues ordered by activation time
+//entries for a local time follow the wall clock, entries after a delay count down on System.nanoTime() so clock
+//changes (daylight saving, NTP steps) don't move them
+public class Scheduler {
+	public static class Entry {
+		private final LocalDateTime time; //null for entries after a delay
+		private final long deadline;      //System.nanoTime() the entry is due at, only for entries after a delay
+		private final Consumer<Entry> action;
+		private final long order;
+		private volatile boolean cancelled = false;
+		private boolean queued = true;
+
+		private Entry(LocalDateTime time, long deadline, Consumer<Entry> action, long order) {
+			this.time = time;
+			this.deadline = deadline;
+			this.action = action;
+			this.order = order;
+		}
+
+		//cancelled entries are left in the queue and skipped when they reach the head, an entry that is already due
+		//but hasn't started running yet doesn't run
+		public void cancel() {
+			Scheduler.cancel(this);
+		}
+		public boolean isCancelled() {
+			return cancelled;
+		}
+		//local time the entry is due at (an estimate for entries after a delay)
+		public LocalDateTime getTime() {
+			if(time != null) {
+				return time;
+			}
+			return LocalDateTime.now().plusNanos(deadline - System.nanoTime());
+		}
+
+		private void run() {
+			if(!cancelled) {
+				action.accept(this);
+			}
+		}
+	}
+
+	//entries due at the same time fire in the order they were scheduled
+	private static final PriorityQueue<Entry> wallQueue = new PriorityQueue<>((a, b) -> {
+		int result = a.time.compareTo(b.time);
+		return result != 0 ? result : Long.compare(a.order, b.order);
+	});
+	private static final PriorityQueue<Entry> delayQueue = new PriorityQueue<>((a, b) -> {
+		int result = Long.compare(a.deadline - b.deadline, 0);
+		return result != 0 ? result : Long.compare(a.order, b.order);
+	});
+	private static final Object lock = new Object();
+	private static Thread timerThread = null;
+	private static long nextOrder = 0;
+	private static int cancelledCount = 0;
+
+	//run action at the given local time (immediately if it is in the past)
+	public static Entry schedule(LocalDateTime time, Runnable action) {
+		return schedule(time, entry -> action.run());
+	}
+
+	//same, the action is handed the entry that fired so it can tell a stale activation from the current one
+	public static Entry schedule(LocalDateTime time, Consumer<Entry> action) {
+		synchronized(lock) {
+			return add(wallQueue, new Entry(time, 0, action, nextOrder++));
+		}
+	}
+
+	//run action after a delay
+	public static Entry schedule(Duration delay, Runnable action) {
+		return schedule(delay, entry -> action.run());
+	}
+
+	public static Entry schedule(Duration delay, Consumer<Entry> action) {
+		synchronized(lock) {
+			return add(delayQueue, new Entry(null, System.nanoTime() + delay.toNanos(), action, nextOrder++));
+		}
+	}
+
+	//move an entry to a new time, returns the entry that replaces it
+	public static Entry reschedule(Entry entry, LocalDateTime time) {
+		entry.cancel();
+		return schedule(time, entry.action);
+	}
+
+	//number of live (non-cancelled) entries
+	public static int size() {
+		synchronized(lock) {
+			return wallQueue.size() + delayQueue.size() - cancelledCount;
+		}
+	}
+
+	private static Entry add(PriorityQueue<Entry> queue, Entry entry) {
+		queue.add(entry);
+
+		if(timerThread == null) {
+			timerThread = new Thread(Scheduler::timerThread, "scheduler");
+			timerThread.setDaemon(true);
+			timerThread.start();
+		} else if(queue.peek() == entry) {
+			//only wake the timer if the new entry is due before whatever it was waiting on
+			lock.notify();
+		}
+		return entry;
+	}
+
+	private static void cancel(Entry entry) {
+		synchronized(lock) {
+			if(entry.cancelled) {
+				return;
+			}
+			entry.cancelled = true;
+
+			//entries that already fired (or are about to) are no longer in the queue
+			if(!entry.queued) {
+				return;
+			}
+			cancelledCount++;
+
+			//rebuild the heaps once most of them is dead weight so cancel-heavy workloads don't leak
+			if(cancelledCount > 64 && cancelledCount > (wallQueue.size() + delayQueue.size()) / 2) {
+				purge(wallQueue);
+				purge(delayQueue);
+				cancelledCount = 0;
+			}
+		}
+	}
+
+	private static void purge(PriorityQueue<Entry> queue) {
+		queue.removeIf(e -> {
+			e.queued = !e.cancelled;
+			return e.cancelled;
+		});
+	}
+
+	//sleep until the earliest entry is due, then hand every due entry to the process pool in one pass
+	private static void timerThread() {
+		List<Entry> due = new ArrayList<>();
+
+		while(true) {
+			synchronized(lock) {
+				while(due.isEmpty()) {
+					long wallWait = collect(wallQueue, due, Scheduler::untilTime);
+					long delayWait = collect(delayQueue, due, entry -> entry.deadline - System.nanoTime());
+					if(!due.isEmpty()) {
+						break;
+					}
+
+					long wait = Math.min(wallWait, delayWait);
+					if(wait == Long.MAX_VALUE) {
+						waitFor(0);
+					} else {
+						//wait() treats 0 as forever, always wait at least 1 ms
+						waitFor(Math.max(1, wait / 1_000_000));
+					}
+				}
+			}
+
+			//actions run outside the lock so they can schedule follow-up entries
+			for(var entry : due) {
+				ProcPool.executor().execute(entry::run);
+			}
+			due.clear();
+		}
+	}
+
+	//move every elapsed entry at the head of queue to due, returns nanoseconds until the next one (MAX_VALUE if none)
+	private static long collect(PriorityQueue<Entry> queue, List<Entry> due, ToLongFunction<Entry> remaining) {
+		while(true) {
+			Entry head = queue.peek();
+			if(head == null) {
+				return Long.MAX_VALUE;
+			}
+
+			if(head.cancelled) {
+				queue.poll().queued = false;
+				cancelledCount--;
+				continue;
+			}
+
+			long left = remaining.applyAsLong(head);
+			if(left > 0) {
+				return left;
+			}
+			queue.poll().queued = false;
+			due.add(head);
+		}
+	}
+
+	//nanoseconds until a local time, capped so entries years away don't overflow
+	private static long untilTime(Entry entry) {
+		Duration left = Duration.between(LocalDateTime.now(), entry.time);
+		return left.compareTo(Duration.ofDays(365)) > 0 ? Duration.ofDays(365).toNanos() : left.toNanos();
+	}
+
+	private static void waitFor(long millis) {
+		try {
+			lock.wait(millis);
+		} catch(InterruptedException e) {
+			//the timer thread is never interrupted on purpose, keep going
+		}
+	}
+}
@@ -0,0 +1,144 @@
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.*;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//connection manager, accepts clients and spreads them over a fixed number of selector loops
+public class Server {
+	//one selector and the thread that services it
+	public static class Loop {
+		private final Selector selector;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+		Loop(int number) throws IOException {
+			selector = Selector.open();
+			Thread thread = new Thread(this::run, "io-loop-" + number);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		//run a task on the loop thread (registration has to happen there)
+		public void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		public void wakeup() {
+			selector.wakeup();
+		}
+
+		Selector getSelector() {
+			return selector;
+		}
+
+		private void run() {
+			while(true) {
+				try {
+					selector.select();
+				} catch(IOException e) {
+					System.err.println("[MASTER]: selector failed: " + e.getMessage());
+					continue;
+				}
+
+				Runnable task;
+				while((task = tasks.poll()) != null) {
+					task.run();
+				}
+
+				var selected = selector.selectedKeys();
+				for(var key : selected) {
+					Client client = (Client) key.attachment();
+					if(!key.isValid()) {
+						client.close();
+						continue;
+					}
+					if(key.isReadable()) {
+						client.onRead();
+					}
+					if(key.isValid() && key.isWritable()) {
+						client.onWrite();
+					}
+				}
+				selected.clear();
+			}
+		}
+	}
+
+	private final ServerSocketChannel listener;
+	private final Loop[] loops;
+	private final AtomicInteger connections = new AtomicInteger();
+	private int next = 0;
+	private final SSLContext tls; //null to serve plaintext
+
+	Server(int port, int threads) throws IOException {
+		this(port, threads, null);
+	}
+
+	//tls: context from TlsEngine.createContext, every connection is encrypted
+	Server(int port, int threads, SSLContext tls) throws IOException {
+		this.tls = tls;
+		listener = ServerSocketChannel.open();
+		listener.bind(new InetSocketAddress(port), 1024);
+
+		loops = new Loop[Math.max(1, threads)];
+		for(int i = 0; i < loops.length; i++) {
+			loops[i] = new Loop(i);
+		}
+	}
+
+	//accept connections on the calling thread until the listener is closed
+	public void run() {
+		while(listener.isOpen()) {
+			SocketChannel channel = null;
+			try {
+				channel = listener.accept();
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+
+				Loop loop = loops[next];
+				next = (next + 1) % loops.length;
+				new Client(channel, loop, this);
+				connections.incrementAndGet();
+			} catch(ClosedChannelException e) {
+				break;
+			} catch(IOException e) {
+				System.err.println("[MASTER]: failed to accept connection: " + e.getMessage());
+				if(channel != null) {
+					try {
+						channel.close();
+					} catch(IOException ignored) {
+						//already closed
+					}
+				}
+			}
+		}
+	}
+
+	public void close() {
+		try {
+			listener.close();
+		} catch(IOException e) {
+			//already closed
+		}
+	}
+
+	//called by Client when its connection closes
+	void disconnected() {
+		connections.decrementAndGet();
+	}
+
+	SSLContext getTlsContext() {
+		return tls;
+	}
+
+	public int getPort() {
+		return listener.socket().getLocalPort();
+	}
+
+	public int getConnections() {
+		return connections.get();
+	}
+}
@@ -0,0 +1,128 @@
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//sessions issued at login, requests are checked against these instead of running the password hash again
+//a token is 32 random bytes: the first 8 look the session up, the other 24 are compared in constant time
+public class Sessions {
+	private static final int ID_BYTES = 8;
+	private static final int SECRET_BYTES = 24;
+	private static final Duration SWEEP = Duration.ofMinutes(1);
+
+	private static class Session {
+		final long id;
+		final String username;
+		final byte[] secret;
+		final long expires; //System.currentTimeMillis() deadline
+
+		Session(long id, String username, byte[] secret, long expires) {
+			this.id = id;
+			this.username = username;
+			this.secret = secret;
+			this.expires = expires;
+		}
+	}
+
+	private static final SecureRandom random = new SecureRandom();
+	private static final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+	private static boolean sweeping = false;
+
+	//issue a new session token for an authenticated user
+	public static String create(String username, Duration lifetime) {
+		byte[] token = new byte[ID_BYTES + SECRET_BYTES];
+		long id;
+		synchronized(random) {
+			do {
+				random.nextBytes(token);
+				id = id(token);
+			} while(sessions.containsKey(id));
+		}
+
+		byte[] secret = new byte[SECRET_BYTES];
+		System.arraycopy(token, ID_BYTES, secret, 0, SECRET_BYTES);
+		sessions.put(id, new Session(id, username, secret, System.currentTimeMillis() + lifetime.toMillis()));
+		startSweep();
+
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+	}
+
+	//username the token belongs to, null if it is unknown, expired or revoked
+	public static String validate(String token) {
+		Session session = find(token);
+		return session == null ? null : session.username;
+	}
+
+	//end a session (logout)
+	public static void revoke(String token) {
+		Session session = find(token);
+		if(session != null) {
+			sessions.remove(session.id, session);
+		}
+	}
+
+	//end every session of a user, used when their password changes or they are removed
+	public static void revokeUser(String username) {
+		sessions.values().removeIf(session -> session.username.equals(username));
+	}
+
+	public static int size() {
+		return sessions.size();
+	}
+
+	private static Session find(String token) {
+		if(token == null || token.length() != 43) {
+			return null;
+		}
+
+		byte[] raw;
+		try {
+			raw = Base64.getUrlDecoder().decode(token);
+		} catch(IllegalArgumentException e) {
+			return null;
+		}
+		if(raw.length != ID_BYTES + SECRET_BYTES) {
+			return null;
+		}
+
+		Session session = sessions.get(id(raw));
+		if(session == null || session.expires < System.currentTimeMillis()) {
+			return null;
+		}
+
+		byte[] secret = new byte[SECRET_BYTES];
+		System.arraycopy(raw, ID_BYTES, secret, 0, SECRET_BYTES);
+		return MessageDigest.isEqual(secret, session.secret) ? session : null;
+	}
+
+	private static long id(byte[] token) {
+		long id = 0;
+		for(int i = 0; i < ID_BYTES; i++) {
+			id = (id << 8) | (token[i] & 0xFF);
+		}
+		return id;
+	}
+
+	//drop expired sessions once a minute on the shared scheduler
+	private static synchronized void startSweep() {
+		if(!sweeping) {
+			sweeping = true;
+			Scheduler.schedule(SWEEP, Sessions::sweep);
+		}
+	}
+
+	private static void sweep() {
+		long now = System.currentTimeMillis();
+		sessions.values().removeIf(session -> session.expires < now);
+
+		synchronized(Sessions.class) {
+			if(sessions.isEmpty()) {
+				sweeping = false;
+			} else {
+				Scheduler.schedule(SWEEP, Sessions::sweep);
+			}
+		}
+	}
+}
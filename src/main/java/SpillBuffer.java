@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/* SPILLING
+backlog of one child pipe on its way to the log. the capture task adds to it whenever the pipe holds more than the
+log has taken, once memoryLimit bytes are waiting everything after goes to a temporary file instead, until the
+backlog has been read past the file
+bytes always come back in the order they were written: memory (older) first, then the file
+nothing here blocks, the capture task stops reading the pipe once isFull() (diskLimit bytes in the file), which is
+when the child finally feels it
+ */
+
+public class SpillBuffer {
+	private final String name;
+	private final int memoryLimit;
+	private final long diskLimit;
+
+	private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+	private long memoryBytes = 0;
+
+	private Path path = null;
+	private FileChannel file = null;
+	private long fileRead = 0;
+	private long fileWrite = 0;
+
+	private boolean closed = false; //nothing more is kept
+
+	private long spills = 0;       //times the buffer started spilling to disk
+	private long spilledBytes = 0;
+
+	SpillBuffer(String name, int memoryLimit, long diskLimit) {
+		this.name = name;
+		this.memoryLimit = memoryLimit;
+		this.diskLimit = diskLimit;
+	}
+
+	//add bytes to the end of the backlog, they are copied (to memory) or written out (to the file) before returning
+	public synchronized void write(byte[] data, int offset, int length) throws IOException {
+		if(closed || length <= 0) {
+			return;
+		}
+
+		boolean spilling = fileWrite > fileRead;
+		if(!spilling && memoryBytes + length <= memoryLimit) {
+			chunks.add(ByteBuffer.wrap(Arrays.copyOfRange(data, offset, offset + length)));
+			memoryBytes += length;
+			return;
+		}
+
+		if(!spilling) {
+			spills++;
+		}
+		if(file == null) {
+			path = Files.createTempFile("procmanager-" + name.replaceAll("[^A-Za-z0-9._-]", "_") + "-", ".spill");
+			path.toFile().deleteOnExit();
+			file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+		ByteBuffer source = ByteBuffer.wrap(data, offset, length);
+		while(source.hasRemaining()) {
+			fileWrite += file.write(source, fileWrite);
+		}
+		spilledBytes += length;
+	}
+
+	//take up to length bytes from the front of the backlog, 0 if it is empty
+	public synchronized int read(byte[] target, int offset, int length) throws IOException {
+		if(memoryBytes > 0) {
+			int read = 0;
+			while(read < length && !chunks.isEmpty()) {
+				ByteBuffer head = chunks.peek();
+				int take = Math.min(length - read, head.remaining());
+				head.get(target, offset + read, take);
+				read += take;
+				if(!head.hasRemaining()) {
+					chunks.poll();
+				}
+			}
+			memoryBytes -= read;
+			return read;
+		}
+
+		if(fileWrite > fileRead) {
+			int take = (int) Math.min(length, fileWrite - fileRead);
+			int read = file.read(ByteBuffer.wrap(target, offset, take), fileRead);
+			fileRead += read;
+
+			//caught up with the file, start over at its beginning and go back to memory
+			if(fileRead == fileWrite) {
+				fileRead = 0;
+				fileWrite = 0;
+				file.truncate(0);
+			}
+			return read;
+		}
+
+		return 0;
+	}
+
+	public synchronized boolean isEmpty() {
+		return memoryBytes == 0 && fileWrite == fileRead;
+	}
+
+	//the file holds diskLimit bytes, stop adding until some have been read
+	public synchronized boolean isFull() {
+		return fileWrite - fileRead >= diskLimit;
+	}
+
+	//stop buffering and remove the spill file
+	public synchronized void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		chunks.clear();
+		memoryBytes = 0;
+
+		if(file != null) {
+			try {
+				file.close();
+				Files.deleteIfExists(path);
+			} catch(IOException e) {
+				System.err.println("[MASTER]: unable to remove spill file " + path);
+			}
+			file = null;
+		}
+		fileRead = 0;
+		fileWrite = 0;
+	}
+
+	//bytes waiting for the log, in memory and on disk
+	public synchronized long getBuffered() {
+		return memoryBytes + fileWrite - fileRead;
+	}
+	public synchronized long getSpills() {
+		return spills;
+	}
+	public synchronized long getSpilledBytes() {
+		return spilledBytes;
+	}
+}
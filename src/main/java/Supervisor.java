@@ -0,0 +1,143 @@
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadLocalRandom;
+
+/* SUPERVISION
+decides what happens when an auto-restarting process exits on its own
+
+backoff: the first restart waits initialBackoff, every following one multiplier times longer up to maxBackoff,
+         each delay is moved up or down by a random fraction (jitter) so processes that died together don't restart together
+         a process that stayed up for at least stableAfter starts over at initialBackoff
+intensity: more than maxRestarts restarts within window and the supervisor gives up, the process stays stopped
+           until it is started by hand (which also clears the history)
+ */
+
+public class Supervisor {
+	public static class Policy {
+		private final Duration initialBackoff;
+		private final Duration maxBackoff;
+		private final double multiplier;
+		private final double jitter;
+		private final int maxRestarts;
+		private final Duration window;
+		private final Duration stableAfter;
+
+		Policy(Builder toCopy) {
+			initialBackoff = toCopy.initialBackoff;
+			maxBackoff     = toCopy.maxBackoff;
+			multiplier     = toCopy.multiplier;
+			jitter         = toCopy.jitter;
+			maxRestarts    = toCopy.maxRestarts;
+			window         = toCopy.window;
+			stableAfter    = toCopy.stableAfter;
+		}
+
+		public static class Builder {
+			private Duration initialBackoff = Duration.ofSeconds(1);
+			private Duration maxBackoff = Duration.ofMinutes(1);
+			private double multiplier = 2;
+			private double jitter = 0.2;          //fraction of the delay, 0.2 is +-20%
+			private int maxRestarts = 10;
+			private Duration window = Duration.ofMinutes(5);
+			private Duration stableAfter = Duration.ofSeconds(30);
+
+			private Builder() {
+			}
+
+			public static Builder newInstance() {
+				return new Builder();
+			}
+
+			//first delay, every following one is multiplier times longer up to max
+			public Builder backoff(Duration initial, Duration max, double multiplier) {
+				this.initialBackoff = initial;
+				this.maxBackoff = max.compareTo(initial) < 0 ? initial : max;
+				this.multiplier = Math.max(1, multiplier);
+				return this;
+			}
+
+			public Builder jitter(double fraction) {
+				this.jitter = Math.min(1, Math.max(0, fraction));
+				return this;
+			}
+
+			//give up after more than restarts restarts within window
+			public Builder intensity(int restarts, Duration window) {
+				this.maxRestarts = Math.max(0, restarts);
+				this.window = window;
+				return this;
+			}
+
+			//uptime after which a process counts as healthy and the backoff starts over
+			public Builder stableAfter(Duration uptime) {
+				this.stableAfter = uptime;
+				return this;
+			}
+
+			public Policy build() {
+				return new Policy(this);
+			}
+		}
+	}
+
+	public static final Policy DEFAULT = Policy.Builder.newInstance().build();
+
+	private final Policy policy;
+	private final ArrayDeque<Long> restarts = new ArrayDeque<>(); //nanoTime of each restart within the window
+	private int attempt = 0;       //restarts since the process was last stable
+	private long totalRestarts = 0;
+	private boolean givenUp = false;
+
+	Supervisor(Policy policy) {
+		this.policy = policy;
+	}
+
+	//the process exited after running for uptime, returns how long to wait before restarting it or null to give up
+	public synchronized Duration exited(Duration uptime) {
+		if(uptime.compareTo(policy.stableAfter) >= 0) {
+			attempt = 0;
+		}
+
+		long now = System.nanoTime();
+		long window = policy.window.toNanos();
+		while(!restarts.isEmpty() && now - restarts.peek() > window) {
+			restarts.poll();
+		}
+		if(restarts.size() >= policy.maxRestarts) {
+			givenUp = true;
+			return null;
+		}
+		restarts.add(now);
+
+		double delay = policy.initialBackoff.toNanos() * Math.pow(policy.multiplier, attempt);
+		delay = Math.min(delay, policy.maxBackoff.toNanos());
+		delay *= 1 + policy.jitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+		attempt++;
+		totalRestarts++;
+		return Duration.ofNanos((long) delay);
+	}
+
+	//the process was started by hand, forget earlier crashes
+	public synchronized void reset() {
+		restarts.clear();
+		attempt = 0;
+		givenUp = false;
+	}
+
+	public synchronized boolean hasGivenUp() {
+		return givenUp;
+	}
+	//restarts within the current window
+	public synchronized int getRecentRestarts() {
+		return restarts.size();
+	}
+	public synchronized long getTotalRestarts() {
+		return totalRestarts;
+	}
+	public int getMaxRestarts() {
+		return policy.maxRestarts;
+	}
+	public Duration getWindow() {
+		return policy.window;
+	}
+}
@@ -40,7 +40,65 @@ public class Task {
 			signal = null;
 		}
 
-		//set local time in the future if it's in the past
+		moveToFuture();
+	}
+
+	private static final String[] FIELDS = {"type", "name", "elapse-time", "frequency", "enabled", "one-time", "signal"};
+
+	//deserialize straight from a message's data without building a JSONObject
+	Task(JsonReader data) {
+		int seen = 0; //bit per entry of FIELDS
+		data.beginObject();
+		while(data.hasNext()) {
+			int field = data.selectName(FIELDS);
+			if(field >= 0) {
+				seen |= 1 << field;
+			}
+			switch(field) {
+				case 0:
+					type = stringToType(data.nextString());
+					break;
+
+				case 1:
+					taskName = data.nextString();
+					break;
+
+				case 2:
+					elapseTime = LocalDateTime.parse(data.nextString());
+					break;
+
+				case 3:
+					frequency = Duration.parse(data.nextString());
+					break;
+
+				case 4:
+					enabled = data.nextBoolean();
+					break;
+
+				case 5:
+					oneTime = data.nextBoolean();
+					break;
+
+				case 6:
+					signal = data.nextString();
+					break;
+
+				default:
+					data.skipValue();
+					break;
+			}
+		}
+		data.endObject();
+
+		//every field is required (signal may be null), like Task(JSONObject) a missing flag is an error rather than false
+		if(seen != (1 << FIELDS.length) - 1 || type == null || taskName == null || elapseTime == null || frequency == null) {
+			throw new IllegalArgumentException("task is missing a required field");
+		}
+		moveToFuture();
+	}
+
+	//set local time in the future if it's in the past
+	private void moveToFuture() {
 		if(elapseTime.isBefore(LocalDateTime.now())) {
 			LocalTime temp = elapseTime.toLocalTime();
 			elapseTime = LocalDateTime.now();
@@ -97,13 +155,13 @@ public class Task {
 		elapseTime = elapseTime.plus(toAdjust);
 	}
 
-	//change date and time
-	public void setElapseTime(LocalDateTime scheduleDateTime) {
-		//don't set time if it's in the past
+	//change date and time, false if the time is in the past and was not set
+	public boolean setElapseTime(LocalDateTime scheduleDateTime) {
 		if(LocalDateTime.now().isAfter(scheduleDateTime)) {
-			return;
+			return false;
 		}
 		elapseTime = scheduleDateTime;
+		return true;
 	}
 
 	//reset function (move forward 1 frequency). if task is one-time it is disabled
@@ -124,23 +182,24 @@ public class Task {
 	   enabled: enabled(boolean)
 	   one-time: oneTime(boolean)
 	 */
-	public JSONObject toJSON() {
-		JSONObject record = new JSONObject();
-		record.put("ID", "task");
-		record.put("type", typeToString(this.type));
-		record.put("name", taskName);
-		record.put("elapse-time", elapseTime.toString());
-		record.put("frequency", frequency.toString());
-		record.put("enabled", enabled);
-		record.put("one-time", oneTime);
-
-		if(signal != null) {
-			record.put("signal", signal);
-		} else {
-			record.put("signal", JSONObject.NULL);
-		}
+	public void write(JsonWriter out) {
+		out.beginObject();
+		out.name("ID").value("task");
+		out.name("type").value(typeToString(this.type));
+		out.name("name").value(taskName);
+		out.name("elapse-time").value(elapseTime.toString());
+		out.name("frequency").value(frequency.toString());
+		out.name("enabled").value(enabled);
+		out.name("one-time").value(oneTime);
+		out.name("signal").value(signal);
+		out.endObject();
+	}
 
-		return record;
+	//same record as a JSONObject tree, prefer write() when the result is only going to be sent
+	public JSONObject toJSON() {
+		JsonWriter out = new JsonWriter();
+		write(out);
+		return new JSONObject(out.toString());
 	}
 
 	public String toString() {
@@ -0,0 +1,287 @@
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/* TLS
+each connection wraps an SSLEngine driven by its selector loop:
+	read: ciphertext is read into inbound, unwrapped, and the plaintext goes through the usual JSON/binary path
+	write: the client's flush wraps queued frames under its outbound lock, so records reach the socket in sequence order
+	handshake: the expensive steps (SSLEngine delegated tasks) run on a separate handshake pool, steady-state
+	           traffic on the loops never waits behind a full handshake
+application frames written while the handshake is still running stay queued in the client until it finishes
+
+resumption: the server session cache (size and timeout configurable) lets TLS 1.2 clients resume by session id,
+TLS 1.3 clients resume with the session tickets the JDK issues after each full handshake
+ */
+
+//TLS for one connection
+public class TlsEngine {
+	private static final ByteBuffer[] NONE = new ByteBuffer[0];
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private static final ThreadPoolExecutor handshakes;
+	private static final LongAdder full = new LongAdder();
+	private static final LongAdder resumed = new LongAdder();
+	private static final LongAdder failed = new LongAdder();
+	public static final Dispatcher.Stage handshakeTime = new Dispatcher.Stage();
+
+	static {
+		int threads = Math.max(1, Main.State.tlsHandshakeThreads);
+		handshakes = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+			Thread thread = new Thread(task, "tls-handshake");
+			thread.setDaemon(true);
+			return thread;
+		});
+		handshakes.allowCoreThreadTimeOut(true);
+	}
+
+	private final SSLEngine engine;
+	private final Client client;
+	private final Server.Loop loop;
+	private final long started = System.nanoTime();
+	private final long startedAt = System.currentTimeMillis();
+
+	private ByteBuffer inbound;   //ciphertext read from the socket (write mode between reads)
+	private ByteBuffer plaintext; //unwrapped application data handed to the client
+	private volatile boolean handshaking = true;
+	private boolean tasksRunning = false; //loop thread only
+
+	TlsEngine(SSLContext context, Client client, Server.Loop loop) throws SSLException {
+		engine = context.createSSLEngine();
+		engine.setUseClientMode(false);
+		engine.beginHandshake();
+		this.client = client;
+		this.loop = loop;
+
+		SSLSession session = engine.getSession();
+		inbound = ByteBuffer.allocate(session.getPacketBufferSize());
+		plaintext = ByteBuffer.allocate(session.getApplicationBufferSize());
+	}
+
+	//server context from a PKCS12/JKS key store
+	public static SSLContext createContext(String keyStore, char[] password, int sessionCacheSize, Duration sessionTimeout) throws IOException {
+		try(InputStream in = Files.newInputStream(Paths.get(keyStore))) {
+			KeyStore store = KeyStore.getInstance(KeyStore.getDefaultType());
+			store.load(in, password);
+
+			KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			keys.init(store, password);
+
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(keys.getKeyManagers(), null, null);
+			context.getServerSessionContext().setSessionCacheSize(sessionCacheSize);
+			context.getServerSessionContext().setSessionTimeout((int) sessionTimeout.toSeconds());
+			return context;
+		} catch(GeneralSecurityException e) {
+			throw new IOException("unable to load TLS key store: " + e.getMessage(), e);
+		}
+	}
+
+	//buffer the socket should be read into
+	ByteBuffer inbound() {
+		return inbound;
+	}
+
+	/*
+	unwrap whatever has been read and move the handshake along, called on the loop thread
+	returns the plaintext that became available (flipped, may be empty), the client consumes all of it
+	 */
+	ByteBuffer unwrap() throws IOException {
+		plaintext.clear();
+		inbound.flip();
+		try {
+			while(!tasksRunning) {
+				var status = engine.getHandshakeStatus();
+				if(status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+					runTasks();
+					break;
+				}
+				if(status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+					client.flush();
+					if(engine.isOutboundDone()) {
+						throw new SSLException("connection closed by the peer");
+					}
+					continue;
+				}
+				if(status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+					finished();
+				}
+				if(!inbound.hasRemaining() && status != SSLEngineResult.HandshakeStatus.NEED_UNWRAP_AGAIN) {
+					break;
+				}
+
+				SSLEngineResult result = engine.unwrap(inbound, plaintext);
+				if(result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+					finished();
+				}
+
+				switch(result.getStatus()) {
+					case OK:
+						continue;
+
+					case BUFFER_OVERFLOW:
+						plaintext = grow(plaintext, engine.getSession().getApplicationBufferSize());
+						continue;
+
+					case BUFFER_UNDERFLOW:
+						//wait for the rest of the record, make room for it if the buffer is too small
+						int needed = engine.getSession().getPacketBufferSize();
+						if(inbound.capacity() < needed) {
+							ByteBuffer larger = ByteBuffer.allocate(needed);
+							larger.put(inbound);
+							larger.flip();
+							inbound = larger;
+						}
+						break;
+
+					case CLOSED:
+						throw new SSLException("connection closed by the peer");
+				}
+				break;
+			}
+		} catch(SSLException e) {
+			if(handshaking) {
+				failed.increment();
+			}
+			throw e;
+		} finally {
+			inbound.compact();
+		}
+
+		plaintext.flip();
+		return plaintext;
+	}
+
+	/*
+	encrypt frames for the socket, called with the client's outbound lock held so records stay in order
+	handshake records the engine wants to send go first, application frames are left unconsumed until the handshake
+	is done
+	 */
+	List<ByteBuffer> wrap(ByteBuffer[] frames) throws IOException {
+		List<ByteBuffer> records = new ArrayList<>();
+		while(engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP && !engine.isOutboundDone()) {
+			records.add(wrapOnce(new ByteBuffer[] {EMPTY}));
+		}
+
+		if(!handshaking) {
+			wrapAll(frames, records);
+		}
+		return records;
+	}
+
+	//close_notify for the peer, best effort
+	ByteBuffer[] close() {
+		engine.closeOutbound();
+		try {
+			return new ByteBuffer[] {wrapOnce(new ByteBuffer[] {EMPTY})};
+		} catch(IOException e) {
+			return NONE;
+		}
+	}
+
+	//handshake counts and latency as a JSON object
+	public static void writeMetrics(JsonWriter out) {
+		out.beginObject();
+		out.name("full").value(full.sum());
+		out.name("resumed").value(resumed.sum());
+		out.name("failed").value(failed.sum());
+		out.name("queued").value(handshakes.getQueue().size());
+		out.name("time");
+		handshakeTime.write(out);
+		out.endObject();
+	}
+
+	private void wrapAll(ByteBuffer[] frames, List<ByteBuffer> records) throws IOException {
+		int first = 0;
+		while(first < frames.length) {
+			if(!frames[first].hasRemaining()) {
+				first++;
+				continue;
+			}
+			ByteBuffer[] rest = first == 0 ? frames : Arrays.copyOfRange(frames, first, frames.length);
+			records.add(wrapOnce(rest));
+		}
+	}
+
+	//one call to wrap, at most one record
+	private ByteBuffer wrapOnce(ByteBuffer[] source) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+		while(true) {
+			SSLEngineResult result = engine.wrap(source, record);
+			if(result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+				//queued frames are flushed from the loop
+				loop.execute(this::finished);
+			}
+
+			switch(result.getStatus()) {
+				case OK:
+					record.flip();
+					return record;
+
+				case BUFFER_OVERFLOW:
+					record = ByteBuffer.allocate(record.capacity() * 2);
+					continue;
+
+				case CLOSED:
+					record.flip();
+					if(record.hasRemaining()) {
+						return record;
+					}
+					throw new SSLException("connection is closed");
+
+				default:
+					throw new SSLException("unexpected wrap result " + result.getStatus());
+			}
+		}
+	}
+
+	//run the engine's delegated tasks on the handshake pool, then carry on from the loop
+	private void runTasks() {
+		tasksRunning = true;
+		handshakes.execute(() -> {
+			Runnable task;
+			while((task = engine.getDelegatedTask()) != null) {
+				task.run();
+			}
+			loop.execute(() -> {
+				tasksRunning = false;
+				client.resumeTls();
+			});
+		});
+	}
+
+	//handshake done, send what was queued meanwhile (loop thread)
+	private void finished() {
+		if(!handshaking) {
+			return;
+		}
+		handshaking = false;
+		handshakeTime.record(System.nanoTime() - started);
+
+		//a resumed session was created by an earlier handshake
+		if(engine.getSession().getCreationTime() < startedAt) {
+			resumed.increment();
+		} else {
+			full.increment();
+		}
+		client.flush();
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer, int size) {
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+}
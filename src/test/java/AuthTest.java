@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+//the auth store journal (changes survive a restart, a torn last record is dropped, nothing is applied unjournaled),
+//login checks and per address login limits
+public class AuthTest {
+	@TempDir
+	Path directory;
+
+	private String file() {
+		return directory.resolve("auth.json").toString();
+	}
+
+	@Test
+	public void journalIsReplayed() {
+		Auth auth = new Auth(file());
+		auth.setMasterUsername("root");
+		assertTrue(auth.setMasterPass("master".toCharArray()));
+		assertTrue(auth.addUser("alice", "secret".toCharArray()));
+		assertTrue(auth.addUser("carol", "other".toCharArray()));
+		auth.changeUsername("alice", "secret".toCharArray(), "bob");
+		auth.delUser("carol", "root", "master".toCharArray());
+
+		Auth reopened = new Auth(file());
+		assertTrue(reopened.checkMaster("root", "master".toCharArray()));
+		assertTrue(reopened.checkPassword("bob", "secret".toCharArray()));
+		assertFalse(reopened.checkPassword("alice", "secret".toCharArray()));
+		assertFalse(reopened.checkPassword("carol", "other".toCharArray()));
+	}
+
+	@Test
+	public void tornRecordIsDropped() throws Exception {
+		Auth auth = new Auth(file());
+		assertTrue(auth.addUser("alice", "secret".toCharArray()));
+
+		//a crash in the middle of writing the next record
+		Files.write(Path.of(file() + ".journal"), "{\"op\": \"delete\", \"user".getBytes(StandardCharsets.UTF_8),
+			StandardOpenOption.APPEND);
+
+		Auth reopened = new Auth(file());
+		assertTrue(reopened.checkPassword("alice", "secret".toCharArray()));
+
+		//the torn bytes are gone, so the next record is read back as well
+		assertTrue(reopened.addUser("bob", "hunter2".toCharArray()));
+		Auth again = new Auth(file());
+		assertTrue(again.checkPassword("alice", "secret".toCharArray()));
+		assertTrue(again.checkPassword("bob", "hunter2".toCharArray()));
+	}
+
+	@Test
+	public void unjournaledChangeIsNotApplied() throws Exception {
+		//a directory where the journal should be, every journal write fails
+		Files.createDirectory(Path.of(file() + ".journal"));
+		Auth auth = new Auth(file());
+
+		assertFalse(auth.addUser("alice", "secret".toCharArray()));
+		assertFalse(auth.checkPassword("alice", "secret".toCharArray()));
+		assertEquals(0, auth.toJSON().getJSONArray("users").length());
+	}
+
+	@Test
+	public void verifyRunsOnTheHashingPool() throws Exception {
+		Auth auth = new Auth(file());
+		auth.setMasterUsername("root");
+		assertTrue(auth.setMasterPass("master".toCharArray()));
+		assertTrue(auth.addUser("alice", "secret".toCharArray()));
+
+		assertTrue(auth.verify("root", "master".toCharArray()).get(10, TimeUnit.SECONDS));
+		assertTrue(auth.verify("alice", "secret".toCharArray()).get(10, TimeUnit.SECONDS));
+		assertFalse(auth.verify("alice", "wrong".toCharArray()).get(10, TimeUnit.SECONDS));
+		assertFalse(auth.verify("nobody", "secret".toCharArray()).get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void loginAttemptsAreLimitedPerAddress() throws Exception {
+		InetAddress address = InetAddress.getByName("192.0.2.17");
+		for(int i = 0; i < 5; i++) {
+			assertTrue(Auth.admit(address), "attempt " + i);
+		}
+		assertFalse(Auth.admit(address));
+		assertTrue(Auth.admit(InetAddress.getByName("192.0.2.18")));
+		assertTrue(Auth.admit(null));
+	}
+}
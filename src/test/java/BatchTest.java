@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+//batched requests: one result per object in order, a failing object doesn't stop the rest, the id comes back
+public class BatchTest {
+	private static final String NAME = "batch-test";
+
+	@AfterEach
+	public void cleanUp() {
+		Main.State.processes.remove(NAME);
+	}
+
+	private static Message request(String type, String data) {
+		Message request = new Message("request", type, 0, "token", data.getBytes(StandardCharsets.UTF_8));
+		request.id = 77;
+		return request;
+	}
+
+	@Test
+	public void everyObjectGetsAResult() {
+		Message request = request("process", "{\"objects\": ["
+			+ "{\"name\": \"" + NAME + "\", \"action\": \"create\", \"args\": [\"true\"]},"
+			+ "{\"name\": \"" + NAME + "\", \"action\": \"create\", \"args\": [\"true\"]},"
+			+ "{\"name\": \"missing-" + NAME + "\", \"action\": \"status\"},"
+			+ "{\"name\": \"" + NAME + "\", \"action\": \"status\"}]}");
+
+		List<JsonReader> objects = request.objects();
+		assertEquals(4, objects.size());
+		assertEquals(NAME, Handler.target(request, objects.get(0)));
+		assertEquals("missing-" + NAME, Handler.target(request, objects.get(2)));
+
+		byte[][] results = new byte[objects.size()][];
+		for(int i = 0; i < results.length; i++) {
+			results[i] = Handler.handleObject(request, objects.get(i));
+		}
+		Message response = Handler.response(request, results);
+		assertEquals("response", response.operation);
+		assertEquals("process", response.type);
+		assertEquals(77, response.id);
+		assertEquals(4, response.count);
+
+		JSONArray parsed = response.getData().getJSONArray("results");
+		assertTrue(parsed.getJSONObject(0).getBoolean("ok"));
+		assertEquals("process already exists: " + NAME, parsed.getJSONObject(1).getString("error"));
+		assertEquals("no such process: missing-" + NAME, parsed.getJSONObject(2).getString("error"));
+		JSONObject status = parsed.getJSONObject(3);
+		assertTrue(status.getBoolean("ok"));
+		assertFalse(status.getBoolean("running"));
+	}
+
+	@Test
+	public void singleObjectAndMalformedObject() {
+		Message single = request("process", "{\"name\": \"" + NAME + "\", \"action\": \"bogus\"}");
+		List<JsonReader> objects = single.objects();
+		assertEquals(1, objects.size());
+		assertFalse(new JSONObject(new String(Handler.handleObject(single, objects.get(0)), StandardCharsets.UTF_8)).getBoolean("ok"));
+
+		//a bad field fails its own object, a batch that can't be split fails as a whole (Dispatcher answers with one error)
+		Message wrongType = request("process", "{\"objects\": [{\"name\": 5, \"action\": \"status\"}]}");
+		byte[] result = Handler.handleObject(wrongType, wrongType.objects().get(0));
+		assertFalse(new JSONObject(new String(result, StandardCharsets.UTF_8)).getBoolean("ok"));
+
+		Message broken = request("process", "{\"objects\": [{\"name\": 5]}");
+		assertThrows(IllegalArgumentException.class, broken::objects);
+	}
+
+	@Test
+	public void onlyLoginsSkipTheSession() {
+		Message logins = request("system", "{\"objects\": [{\"action\": \"login\"}, {\"action\": \"login\"}]}");
+		assertTrue(Handler.isLogin(logins, logins.objects()));
+
+		Message mixed = request("system", "{\"objects\": [{\"action\": \"login\"}, {\"action\": \"list\"}]}");
+		assertFalse(Handler.isLogin(mixed, mixed.objects()));
+
+		Message process = request("process", "{\"action\": \"login\"}");
+		assertFalse(Handler.isLogin(process, process.objects()));
+		assertNull(Handler.target(logins, logins.objects().get(0)));
+	}
+}
@@ -0,0 +1,63 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+//binary frames decode back to the message they were encoded from
+public class BinaryCodecTest {
+	private static Message roundTrip(Message message) {
+		byte[] frame = BinaryCodec.encode(message);
+		ByteBuffer buffer = ByteBuffer.wrap(frame);
+		assertEquals(frame.length - BinaryCodec.HEADER, buffer.getInt());
+		return BinaryCodec.decode(buffer);
+	}
+
+	private static void assertSame(Message expected, Message actual) {
+		assertEquals(expected.operation, actual.operation);
+		assertEquals(expected.type, actual.type);
+		assertEquals(expected.count, actual.count);
+		assertEquals(expected.token, actual.token);
+		assertEquals(expected.id, actual.id);
+		assertArrayEquals(expected.dataBytes(), actual.dataBytes());
+	}
+
+	@Test
+	public void knownNames() {
+		byte[] data = "{\"name\": \"web\", \"action\": \"start\",\n\"args\": [\"caf\u00e9\"]}".getBytes(StandardCharsets.UTF_8);
+		Message message = new Message("request", "process", 1, "a1b2c3", data);
+		message.id = 0x1234_5678_9abcL;
+		assertSame(message, roundTrip(message));
+	}
+
+	@Test
+	public void customNamesNoTokenNoData() {
+		Message message = new Message("ping", "heartbeat", 0, null, (byte[]) null);
+		message.id = -1;
+		Message decoded = roundTrip(message);
+		assertSame(message, decoded);
+		assertTrue(decoded.objects().isEmpty());
+	}
+
+	@Test
+	public void batchObjectsSurvive() {
+		byte[] data = "{\"objects\": [{\"name\": \"a\"}, {\"name\": \"b\"}]}".getBytes(StandardCharsets.UTF_8);
+		Message decoded = roundTrip(new Message("request", "process", 2, null, data));
+		var objects = decoded.objects();
+		assertEquals(2, objects.size());
+		assertEquals("b", Handler.target(decoded, objects.get(1)));
+	}
+
+	@Test
+	public void tokensAreLimited() {
+		Message message = new Message("request", "system", 1, "t".repeat(256), (byte[]) null);
+		assertThrows(IllegalArgumentException.class, () -> BinaryCodec.encode(message));
+	}
+
+	@Test
+	public void preface() {
+		assertEquals(BinaryCodec.VERSION, BinaryCodec.version(BinaryCodec.PREFACE));
+		assertEquals(-1, BinaryCodec.version("GET ".getBytes(StandardCharsets.US_ASCII)));
+		assertEquals(-1, BinaryCodec.version(new byte[] {'P', 'M'}));
+	}
+}
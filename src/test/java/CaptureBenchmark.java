@@ -0,0 +1,68 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/* output capture throughput: a child writes 1 GB of 100 byte lines to stdout, read once through
+BufferedReader/InputStreamReader (how ProcIO used to read) and once through LineReader
+
+usage: CaptureBenchmark [megabytes]
+ */
+
+public class CaptureBenchmark {
+	public static void main(String[] args) throws Exception {
+		long bytes = (args.length > 0 ? Long.parseLong(args[0]) : 1024) * 1024 * 1024;
+
+		//warm up both readers before measuring
+		run("reader", bytes / 16, CaptureBenchmark::readChars);
+		run("line reader", bytes / 16, CaptureBenchmark::readBytes);
+
+		report("BufferedReader", bytes, run("reader", bytes, CaptureBenchmark::readChars));
+		report("LineReader", bytes, run("line reader", bytes, CaptureBenchmark::readBytes));
+	}
+
+	private interface Reader {
+		long lines(InputStream in) throws IOException;
+	}
+
+	//seconds taken to read the child's output
+	private static double run(String name, long bytes, Reader reader) throws Exception {
+		String line = "x".repeat(99);
+		Process child = new ProcessBuilder("sh", "-c", "yes " + line + " | head -c " + bytes).start();
+
+		long started = System.nanoTime();
+		long lines = reader.lines(child.getInputStream());
+		double seconds = (System.nanoTime() - started) / 1e9;
+
+		child.waitFor();
+		//head may cut the last line short, it still counts
+		long expected = (bytes + 99) / 100;
+		if(lines != expected) {
+			throw new IllegalStateException(name + " read " + lines + " lines, expected " + expected);
+		}
+		return seconds;
+	}
+
+	private static long readChars(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		long lines = 0;
+		while(reader.readLine() != null) {
+			lines++;
+		}
+		return lines;
+	}
+
+	private static long readBytes(InputStream in) throws IOException {
+		LineReader reader = new LineReader(in, StandardCharsets.UTF_8);
+		long lines = 0;
+		while(reader.readLine() != null) {
+			lines++;
+		}
+		return lines;
+	}
+
+	private static void report(String name, long bytes, double seconds) {
+		System.out.printf("%-15s %6.0f MB/s %10.0f lines/s%n", name, bytes / seconds / (1024 * 1024), bytes / 100 / seconds);
+	}
+}
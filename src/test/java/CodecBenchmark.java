@@ -0,0 +1,51 @@
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+
+/* wire formats: a typical process request (a process record with one task) is decoded and encoded again, as
+newline delimited JSON through org.json, as JSON through Message, and as a BinaryCodec frame
+reported: bytes on the wire and microseconds per decode+encode round trip
+
+usage: CodecBenchmark [iterations]
+ */
+
+public class CodecBenchmark {
+	private static long sink = 0; //keeps results alive so the JIT can't drop the work
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+		String line = "{\"operation\": \"request\", \"type\": \"process\", \"object count\": 1, \"token\": 0, \"data\": " + processRecord() + "}";
+		byte[] json = new Message(line).encode();
+		byte[] frame = new Message(line).encodeBinary();
+
+		System.out.printf("json %d bytes, binary %d bytes%n", json.length, frame.length);
+		for(int pass = 0; pass < 2; pass++) {
+			//the first pass warms up
+			double orgJson = time(iterations, () -> new JSONObject(line).toString().getBytes(StandardCharsets.UTF_8).length);
+			double message = time(iterations, () -> new Message(line).encode().length);
+			double binary = time(iterations, () -> BinaryCodec.decode(ByteBuffer.wrap(frame, BinaryCodec.HEADER, frame.length - BinaryCodec.HEADER)).encodeBinary().length);
+			if(pass == 1) {
+				System.out.printf("round trip: org.json %.2f us  Message json %.2f us  binary %.2f us%n", orgJson, message, binary);
+			}
+		}
+	}
+
+	//a process with one task, as sent to create or update a process
+	static String processRecord() {
+		Proc proc = new Proc("survival-server", "java", "-Xmx4G", "-jar", "server.jar", "nogui");
+		proc.addTask(Task.Builder.newInstance("nightly-restart").restartProcess().daily().at(LocalTime.of(4, 0)).build());
+		return proc.serialize().toString();
+	}
+
+	//microseconds per call
+	static double time(int iterations, java.util.function.IntSupplier op) {
+		long start = System.nanoTime();
+		for(int i = 0; i < iterations; i++) {
+			sink += op.getAsInt();
+		}
+		return (System.nanoTime() - start) / 1000.0 / iterations;
+	}
+}
@@ -0,0 +1,63 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+//seeking to single records in a block compressed segment
+public class CompressedSegmentTest {
+	private static final int INDEX_ENTRY = 16;
+	private static final int RECORDS = 5000;
+
+	@TempDir
+	Path directory;
+
+	//record i, one of them larger than a block so it gets a block of its own
+	private static byte[] record(int i) {
+		String text = i == 1234 ? "x".repeat(CompressedSegment.BLOCK_BYTES * 2) : "record " + i + " " + "y".repeat(i % 97);
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void readsEveryRecordInAnyOrder() throws Exception {
+		ByteBuffer index = ByteBuffer.allocate(RECORDS * INDEX_ENTRY);
+		int size = 0;
+		for(int i = 0; i < RECORDS; i++) {
+			size += record(i).length;
+		}
+		ByteBuffer data = ByteBuffer.allocate(size);
+		for(int i = 0; i < RECORDS; i++) {
+			byte[] record = record(i);
+			index.putLong(i + 1L).putInt(data.position()).putInt(record.length);
+			data.put(record);
+		}
+
+		File file = directory.resolve("0.segz").toFile();
+		CompressedSegment.write(file, data, index, RECORDS, INDEX_ENTRY);
+		CompressedSegment segment = new CompressedSegment(file);
+		assertTrue(segment.size() < size / 4, "segment didn't compress: " + segment.size() + " of " + size);
+
+		//random seeks move between blocks, the sequential pass reuses the last inflated one
+		Random random = new Random(42);
+		for(int n = 0; n < 2 * RECORDS; n++) {
+			int i = n < RECORDS ? random.nextInt(RECORDS) : n - RECORDS;
+			ByteBuffer record = segment.record(index.getInt(i * INDEX_ENTRY + 8), index.getInt(i * INDEX_ENTRY + 12));
+			byte[] read = new byte[record.remaining()];
+			record.get(read);
+			assertArrayEquals(record(i), read, "record " + i);
+		}
+	}
+
+	@Test
+	public void refusesACorruptFile() throws Exception {
+		Path file = directory.resolve("bad.segz");
+		Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+		assertThrows(IOException.class, () -> new CompressedSegment(file.toFile()));
+	}
+}
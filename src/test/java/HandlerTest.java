@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+//process requests against the log history
+public class HandlerTest {
+	private static final String NAME = "handler-history-test";
+	private static final Message REQUEST = new Message("request", "process", 1, null, (byte[]) null);
+
+	private static JSONObject request(String json) {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		byte[] result = Handler.handleObject(REQUEST, new JsonReader(bytes));
+		return new JSONObject(new String(result, StandardCharsets.UTF_8));
+	}
+
+	@AfterEach
+	public void cleanUp() {
+		Proc proc = Main.State.processes.remove(NAME);
+		if(proc != null) {
+			proc.stop();
+			proc.disableHistory();
+		}
+		delete(new File(NAME + ".history"));
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	@Timeout(value = 30, unit = TimeUnit.SECONDS)
+	public void historyAndSearch() throws Exception {
+		JSONObject created = request("{\"name\": \"" + NAME + "\", \"action\": \"create\", \"args\": [\"sh\", \"-c\", "
+			+ "\"echo alpha; echo beta\"], \"history\": true, \"search-index\": true}");
+		assertTrue(created.getBoolean("ok"), created.toString());
+		assertTrue(request("{\"name\": \"" + NAME + "\", \"action\": \"start\"}").getBoolean("ok"));
+
+		String search = "{\"name\": \"" + NAME + "\", \"action\": \"search\", \"info\": [\"STDOUT\"]}";
+		while(request(search).getJSONArray("lines").length() < 2) {
+			Thread.sleep(10);
+		}
+
+		JSONObject beta = request("{\"name\": \"" + NAME + "\", \"action\": \"search\", \"contains\": \"beta\"}");
+		assertEquals(1, beta.getJSONArray("lines").length());
+		assertTrue(beta.getJSONArray("lines").getString(0).endsWith("beta"));
+
+		//page through the history one line at a time
+		JSONObject first = request("{\"name\": \"" + NAME + "\", \"action\": \"history\", \"count\": 1}");
+		assertTrue(first.getBoolean("ok"), first.toString());
+		assertEquals(0, first.getLong("first"));
+		assertEquals(1, first.getLong("next"));
+		assertEquals(1, first.getJSONArray("lines").length());
+
+		JSONObject rest = request("{\"name\": \"" + NAME + "\", \"action\": \"history\", \"line\": 1}");
+		assertTrue(rest.getJSONArray("lines").length() >= 2);
+		assertEquals(1 + rest.getJSONArray("lines").length(), rest.getLong("next"));
+
+		JSONObject at = request("{\"name\": \"" + NAME + "\", \"action\": \"history\", \"at\": \"2000-01-01T00:00\"}");
+		assertEquals(0, at.getLong("next") - at.getJSONArray("lines").length());
+
+		//once history is off the stored lines can't be read, search falls back to the in-memory log
+		assertTrue(request("{\"name\": \"" + NAME + "\", \"action\": \"configure-history\", \"history\": false}").getBoolean("ok"));
+		assertFalse(request("{\"name\": \"" + NAME + "\", \"action\": \"history\"}").getBoolean("ok"));
+		assertEquals(1, request("{\"name\": \"" + NAME + "\", \"action\": \"search\", \"contains\": \"alpha\"}")
+			.getJSONArray("lines").length());
+	}
+}
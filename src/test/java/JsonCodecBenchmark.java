@@ -0,0 +1,45 @@
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+
+/* streaming JSON: a task request is decoded into a Task and a process with one task is encoded, once through
+org.json trees and once through JsonReader/JsonWriter
+reported: microseconds per decode and per encode
+the org.json encode only times toString() of a tree that is already built, the old path also had to build it
+
+usage: JsonCodecBenchmark [iterations]
+ */
+
+public class JsonCodecBenchmark {
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+		Task task = Task.Builder.newInstance("nightly-restart").restartProcess().daily().at(LocalTime.of(4, 0)).build();
+		JsonWriter taskData = new JsonWriter();
+		task.write(taskData);
+		String line = "{\"operation\": \"request\", \"type\": \"task\", \"object count\": 1, \"token\": 0, \"data\": " + taskData + "}";
+		byte[] json = line.getBytes(StandardCharsets.UTF_8);
+		int length = json.length;
+
+		Proc proc = new Proc("survival-server", "java", "-Xmx4G", "-jar", "server.jar", "nogui");
+		proc.addTask(task);
+		JSONObject tree = proc.serialize();
+
+		for(int pass = 0; pass < 2; pass++) {
+			//the first pass warms up
+			double treeDecode = CodecBenchmark.time(iterations, () -> new Task(new JSONObject(line).getJSONObject("data")).hashCode());
+			double streamDecode = CodecBenchmark.time(iterations, () -> new Message(json, 0, length).getTask().hashCode());
+			double treeEncode = CodecBenchmark.time(iterations, () -> tree.toString().getBytes(StandardCharsets.UTF_8).length);
+			double streamEncode = CodecBenchmark.time(iterations, () -> {
+				JsonWriter out = new JsonWriter();
+				proc.serialize(out);
+				return out.toBytes().length;
+			});
+			if(pass == 1) {
+				System.out.printf("decode task request: org.json %.2f us  JsonReader %.2f us%n", treeDecode, streamDecode);
+				System.out.printf("encode process:      org.json %.2f us  JsonWriter %.2f us%n", treeEncode, streamEncode);
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+//JsonWriter output reads back through JsonReader (and org.json) unchanged
+public class JsonTest {
+	private static final String[] NAMES = {"text", "number", "flag", "none", "list", "nested"};
+	private static final String TEXT = "quote \" backslash \\ tab \t newline \n cr \r bell \u0007 caf\u00e9 \u20ac \ud83d\ude00";
+
+	private static byte[] write() {
+		JsonWriter out = new JsonWriter(8);
+		out.beginObject();
+		out.name("text").value(TEXT);
+		out.name("number").value(Long.MIN_VALUE + 1);
+		out.name("flag").value(true);
+		out.name("none").value((String) null);
+		out.name("list").beginArray().value(1).value(-2).value("three").beginObject().endObject().endArray();
+		out.name("nested").beginObject().name("flag").value(false).name("skipped").value("] } [ {").endObject();
+		return out.endObject().toBytes();
+	}
+
+	@Test
+	public void writeAndReadBack() {
+		JsonReader in = new JsonReader(write());
+		int seen = 0;
+		in.beginObject();
+		while(in.hasNext()) {
+			int field = in.selectName(NAMES);
+			seen |= 1 << field;
+			switch(field) {
+				case 0:
+					assertEquals(TEXT, in.nextString());
+					break;
+
+				case 1:
+					assertEquals(Long.MIN_VALUE + 1, in.nextLong());
+					break;
+
+				case 2:
+					assertTrue(in.nextBoolean());
+					break;
+
+				case 3:
+					assertNull(in.nextString());
+					break;
+
+				case 4:
+					in.beginArray();
+					assertEquals(1, in.nextInt());
+					assertTrue(in.hasNext());
+					assertEquals(-2, in.nextLong());
+					assertTrue(in.hasNext());
+					assertEquals("three", in.nextString());
+					assertTrue(in.hasNext());
+					in.skipValue();
+					assertFalse(in.hasNext());
+					in.endArray();
+					break;
+
+				case 5:
+					in.beginObject();
+					assertEquals(2, in.selectName(NAMES));
+					assertFalse(in.nextBoolean());
+					assertTrue(in.hasNext());
+					assertEquals(-1, in.selectName(NAMES));
+					in.skipValue();
+					assertFalse(in.hasNext());
+					in.endObject();
+					break;
+
+				default:
+					fail("unexpected field");
+			}
+		}
+		in.endObject();
+		assertEquals((1 << NAMES.length) - 1, seen);
+	}
+
+	@Test
+	public void orgJsonAgrees() {
+		JSONObject parsed = new JSONObject(new String(write(), StandardCharsets.UTF_8));
+		assertEquals(TEXT, parsed.getString("text"));
+		assertEquals(Long.MIN_VALUE + 1, parsed.getLong("number"));
+		assertTrue(parsed.isNull("none"));
+		assertEquals("] } [ {", parsed.getJSONObject("nested").getString("skipped"));
+
+		//and the reader takes what org.json writes, escapes included
+		byte[] written = parsed.toString().getBytes(StandardCharsets.UTF_8);
+		JsonReader in = new JsonReader(written);
+		in.beginObject();
+		while(in.hasNext()) {
+			if(in.selectName(NAMES) == 0) {
+				assertEquals(TEXT, in.nextString());
+			} else {
+				in.skipValue();
+			}
+		}
+		in.endObject();
+	}
+
+	@Test
+	public void malformedInputIsRefused() {
+		byte[] truncated = "{\"text\": \"open".getBytes(StandardCharsets.UTF_8);
+		JsonReader in = new JsonReader(truncated);
+		in.beginObject();
+		assertEquals(0, in.selectName(NAMES));
+		assertThrows(IllegalArgumentException.class, in::nextString);
+		assertThrows(IllegalArgumentException.class, () -> new JsonReader(new byte[] {'['}).beginObject());
+	}
+}
@@ -0,0 +1,89 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/* connection scaling: many plaintext connections are opened against the server on loopback and held open, then each
+one does a request/response round trip while all the others stay connected
+reported: connections held, threads added while they are open (the server uses its fixed selector loops), heap per connection and round trip latency
+heap is measured in this JVM after a GC, so it includes the client side of each connection
+
+usage: LoadBenchmark [connections] [port]
+ */
+
+public class LoadBenchmark {
+	private static final byte[] REQUEST = "{\"operation\": \"request\", \"type\": \"system\", \"object count\": 1, \"token\": 0, \"data\": {\"action\": \"list\"}}\n".getBytes(StandardCharsets.UTF_8);
+
+	public static void main(String[] args) throws Exception {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 31244;
+
+		Server server = new Server(port, Main.State.ioThreads);
+		Thread acceptor = new Thread(server::run, "benchmark-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		//warm up the request path, then measure
+		run(server, port, connections / 10);
+		run(server, port, connections);
+		server.close();
+	}
+
+	private static void run(Server server, int port, int connections) throws Exception {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+		long heapBefore = usedHeap(memory);
+
+		SocketChannel[] channels = new SocketChannel[connections];
+		for(int i = 0; i < connections; i++) {
+			channels[i] = SocketChannel.open(new InetSocketAddress("localhost", port));
+			channels[i].socket().setTcpNoDelay(true);
+		}
+		while(server.getConnections() < connections) {
+			Thread.sleep(10);
+		}
+		long heapHeld = usedHeap(memory);
+		int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+		long[] latency = new long[connections];
+		ByteBuffer response = ByteBuffer.allocate(64 * 1024);
+		for(int i = 0; i < connections; i++) {
+			long start = System.nanoTime();
+			channels[i].write(ByteBuffer.wrap(REQUEST));
+			response.clear();
+			do {
+				channels[i].read(response);
+			} while(response.position() == 0 || response.get(response.position() - 1) != '\n');
+			latency[i] = System.nanoTime() - start;
+		}
+		int held = server.getConnections();
+
+		for(var channel : channels) {
+			channel.close();
+		}
+		while(server.getConnections() > 0) {
+			Thread.sleep(10);
+		}
+
+		System.out.printf("%6d connections held: %d  threads added %d  heap %.2f KB/connection | round trip p50 %6.1f us  p99 %8.1f us  max %8.1f us%n",
+			connections, held, threads - threadsBefore, (heapHeld - heapBefore) / 1024.0 / connections,
+			percentile(latency, 50), percentile(latency, 99), percentile(latency, 100));
+	}
+
+	private static long usedHeap(MemoryMXBean memory) throws InterruptedException {
+		System.gc();
+		Thread.sleep(200);
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	//in microseconds
+	private static double percentile(long[] samples, int p) {
+		long[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		int index = Math.min(sorted.length - 1, (int) Math.ceil(p / 100.0 * sorted.length) - 1);
+		return sorted[Math.max(0, index)] / 1000.0;
+	}
+}
@@ -0,0 +1,36 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import org.junit.jupiter.api.Test;
+
+//formatted log lines match the original "MM-dd-yy HH:mm:ss.SS - [manager][info]: msg" layout
+public class LogEntryTest {
+	private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("MM-dd-yy HH:mm:ss.SS");
+
+	private static String expected(long time, String info, String msg) {
+		Instant instant = Instant.ofEpochSecond(Math.floorDiv(time, 1_000_000_000L), Math.floorMod(time, 1_000_000_000L));
+		String prefix = LocalDateTime.ofInstant(instant, ZoneId.systemDefault()).format(FORMAT) + " - ";
+		return prefix + "[web]" + (info != null ? "[" + info + "]" : "") + ": " + msg;
+	}
+
+	@Test
+	public void formatsTimestampTagAndMessage() {
+		long now = LogEntry.now();
+		long[] times = {now, now + 5_000_000, now + 999_999_999, now + 3_600_000_000_000L, now - 86_400_000_000_000L, now};
+		for(long time : times) {
+			assertEquals(expected(time, "STDOUT", "hello"), new LogEntry(time, "web", "STDOUT", "hello", true).line());
+			assertEquals(expected(time, null, "exited"), new LogEntry(time, "web", null, "exited", true).line());
+		}
+	}
+
+	@Test
+	public void withoutTimestamp() {
+		LogEntry entry = new LogEntry(LogEntry.now(), "web", "TASK", "'nightly' has activated.", false);
+		assertEquals("[web][TASK]: 'nightly' has activated.", entry.line());
+		assertEquals(entry.line(), entry.toString());
+		assertSame(entry.line(), entry.line());
+	}
+}
@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+//sequence numbers, wraparound and resizing of the log cache ring
+public class LogRingTest {
+	private static LogRing<Integer> filled(int capacity, int count) {
+		LogRing<Integer> ring = new LogRing<>(capacity);
+		for(int i = 0; i < count; i++) {
+			ring.append(i);
+		}
+		return ring;
+	}
+
+	@Test
+	public void keepsTheNewestEntriesOnceFull() {
+		LogRing<Integer> ring = filled(4, 10);
+
+		var page = ring.snapshot();
+		assertEquals(6, page.first);
+		assertEquals(10, page.next);
+		assertEquals(List.of(6, 7, 8, 9), page.entries);
+		assertEquals(4, ring.size());
+		assertEquals(10, ring.getHead());
+	}
+
+	@Test
+	public void readsFromASequenceNumber() {
+		LogRing<Integer> ring = filled(4, 10);
+
+		//entries that were overwritten are skipped, first tells the reader how many it lost
+		var lost = ring.since(2, Integer.MAX_VALUE);
+		assertEquals(6, lost.first);
+		assertEquals(List.of(6, 7, 8, 9), lost.entries);
+
+		var tail = ring.since(8, Integer.MAX_VALUE);
+		assertEquals(8, tail.first);
+		assertEquals(List.of(8, 9), tail.entries);
+
+		var limited = ring.since(7, 2);
+		assertEquals(List.of(7, 8), limited.entries);
+		assertEquals(9, limited.next);
+
+		var caughtUp = ring.since(10, Integer.MAX_VALUE);
+		assertTrue(caughtUp.entries.isEmpty());
+		assertEquals(10, caughtUp.next);
+	}
+
+	@Test
+	public void clearKeepsCounting() {
+		LogRing<Integer> ring = filled(4, 6);
+		ring.clear();
+		assertEquals(0, ring.size());
+		assertTrue(ring.snapshot().entries.isEmpty());
+
+		ring.append(6);
+		var page = ring.since(0, Integer.MAX_VALUE);
+		assertEquals(6, page.first);
+		assertEquals(List.of(6), page.entries);
+	}
+
+	@Test
+	public void resizeCarriesSequenceNumbers() {
+		LogRing<Integer> ring = filled(8, 12);
+
+		LogRing<Integer> shrunk = ring.resize(3);
+		assertEquals(12, shrunk.getHead());
+		assertEquals(List.of(9, 10, 11), shrunk.snapshot().entries);
+
+		LogRing<Integer> grown = ring.resize(16);
+		assertEquals(List.of(4, 5, 6, 7, 8, 9, 10, 11), grown.snapshot().entries);
+		grown.append(12);
+		assertEquals(4, grown.snapshot().first);
+		assertEquals(9, grown.size());
+	}
+}
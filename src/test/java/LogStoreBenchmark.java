@@ -0,0 +1,89 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/* history compression: the same console-style lines are appended to a raw and to a compressing LogStore, then both
+are read back front to back
+reported: bytes on disk, compression ratio, append rate and sequential read rate for each store
+
+usage: LogStoreBenchmark [lines]
+ */
+
+public class LogStoreBenchmark {
+	private static final int SEGMENT_BYTES = 8 * 1024 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		int lines = args.length > 0 ? Integer.parseInt(args[0]) : 600_000;
+		Path root = Files.createTempDirectory("logstore-bench");
+
+		run(root.resolve("raw"), false, lines);
+		run(root.resolve("compressed"), true, lines);
+
+		for(File dir : root.toFile().listFiles()) {
+			for(File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+		root.toFile().delete();
+	}
+
+	private static void run(Path dir, boolean compress, int lines) throws Exception {
+		LogStore store = new LogStore(dir.toString(), "bench", SEGMENT_BYTES, Long.MAX_VALUE);
+		if(compress) {
+			store.enableCompression();
+		}
+
+		long start = System.nanoTime();
+		for(int i = 0; i < lines; i++) {
+			store.append(new LogEntry("bench", "STDOUT", line(i), true));
+		}
+		store.close();
+		long appendTime = System.nanoTime() - start;
+
+		//sealing and compression run in the background, wait until no raw segment is left
+		while(compress && hasRawSegments(dir)) {
+			Thread.sleep(50);
+		}
+		long[] usage = store.diskUsage();
+
+		//read twice, the first pass warms up
+		long readTime = 0;
+		for(int pass = 0; pass < 2; pass++) {
+			start = System.nanoTime();
+			long read = 0;
+			for(long line = 0; line < lines; line += 1000) {
+				List<LogEntry> page = store.read(line, 1000);
+				read += page.size();
+			}
+			readTime = System.nanoTime() - start;
+			if(read != lines) {
+				throw new IllegalStateException("read " + read + " of " + lines + " lines");
+			}
+		}
+
+		System.out.printf("%-10s %6.1f MB raw  %6.1f MB on disk  %5.1f:1 | append %8.0f lines/s  read %8.0f lines/s%n",
+			compress ? "compressed" : "raw", usage[0] / 1e6, usage[1] / 1e6, (double) usage[0] / usage[1],
+			lines / (appendTime / 1e9), lines / (readTime / 1e9));
+	}
+
+	private static boolean hasRawSegments(Path dir) {
+		String[] raw = dir.toFile().list((d, name) -> name.endsWith(".seg"));
+		return raw != null && raw.length > 0;
+	}
+
+	//game-server-style console output: a few kinds of lines with changing names and numbers
+	private static String line(int i) {
+		switch(i % 4) {
+			case 0:
+				return "[Server thread/INFO]: Player" + (i % 97) + " moved to " + (i % 2000) + ", 64, -" + (i % 1500);
+			case 1:
+				return "[Server thread/INFO]: Saving chunks for level 'ServerLevel[world]'/minecraft:overworld";
+			case 2:
+				return "[Server thread/WARN]: Can't keep up! Is the server overloaded? Running " + (2000 + i % 500) + "ms or " + (40 + i % 10) + " ticks behind";
+			default:
+				return "[User Authenticator #" + (i % 8) + "/INFO]: UUID of player Player" + (i % 97) + " is 3f2a" + Integer.toHexString(i * 7919);
+		}
+	}
+}
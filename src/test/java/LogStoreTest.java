@@ -0,0 +1,111 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+//reading, seeking and recovering the segmented log history
+public class LogStoreTest {
+	private static final int SEGMENT = 4096;
+	private static final int LINES = 500;
+	private static final long START = 1_700_000_000_000_000_000L;
+
+	@TempDir
+	Path directory;
+
+	private LogStore open() throws Exception {
+		return new LogStore(directory.toString(), "test", SEGMENT, Long.MAX_VALUE);
+	}
+
+	private static LogEntry entry(int line) {
+		return new LogEntry(START + line * 10L, "test", line % 2 == 0 ? "STDOUT" : null, "line " + line, true);
+	}
+
+	private static void fill(LogStore store) throws Exception {
+		for(int i = 0; i < LINES; i++) {
+			store.append(entry(i));
+		}
+	}
+
+	private static void assertLines(List<LogEntry> entries, int first) {
+		for(int i = 0; i < entries.size(); i++) {
+			LogEntry expected = entry(first + i);
+			assertEquals(expected.time, entries.get(i).time);
+			assertEquals(expected.info, entries.get(i).info);
+			assertEquals(expected.msg, entries.get(i).msg);
+		}
+	}
+
+	//sealing runs in the background, a sealed data file is trimmed below the segment size
+	private void awaitSealed() throws Exception {
+		File[] files;
+		do {
+			Thread.sleep(5);
+			files = directory.toFile().listFiles((dir, name) -> name.endsWith(".seg") && new File(dir, name).length() == SEGMENT);
+		} while(files != null && files.length > 0);
+	}
+
+	@Test
+	public void readsAcrossSegments() throws Exception {
+		LogStore store = open();
+		fill(store);
+		assertTrue(directory.toFile().list((dir, name) -> name.endsWith(".idx")).length >= 3, "expected several segments");
+
+		List<LogEntry> all = store.read(0, LINES);
+		assertEquals(LINES, all.size());
+		assertLines(all, 0);
+		assertLines(store.read(123, 5), 123);
+		assertEquals(2, store.read(LINES - 2, 10).size());
+		assertTrue(store.read(LINES, 10).isEmpty());
+		store.close();
+	}
+
+	@Test
+	public void findsLinesByTime() throws Exception {
+		LogStore store = open();
+		fill(store);
+
+		assertEquals(0, store.findLine(0));
+		assertEquals(0, store.findLine(START));
+		assertEquals(250, store.findLine(START + 2500));
+		assertEquals(250, store.findLine(START + 2495));
+		assertEquals(LINES - 1, store.findLine(START + (LINES - 1) * 10L));
+		assertEquals(LINES, store.findLine(Long.MAX_VALUE));
+		store.close();
+	}
+
+	@Test
+	@Timeout(value = 30, unit = TimeUnit.SECONDS)
+	public void recoversAfterReopen() throws Exception {
+		LogStore store = open();
+		fill(store);
+		store.close();
+		awaitSealed();
+
+		LogStore reopened = open();
+		assertEquals(0, reopened.firstLine());
+		assertEquals(LINES, reopened.nextLine());
+		assertLines(reopened.read(0, LINES), 0);
+
+		//new lines carry on from where the old store stopped
+		reopened.append(entry(LINES));
+		assertLines(reopened.read(LINES - 1, 2), LINES - 1);
+		reopened.close();
+	}
+
+	@Test
+	public void replacesMalformedText() throws Exception {
+		LogStore store = open();
+		store.append(new LogEntry(START, "test", null, "a\uD800b", true));
+		store.append(entry(1));
+
+		List<LogEntry> read = store.read(0, 2);
+		assertEquals("a?b", read.get(0).msg);
+		assertLines(read.subList(1, 2), 1);
+		store.close();
+	}
+}
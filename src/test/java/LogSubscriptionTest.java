@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+//live log pushes to a subscriber that falls behind
+public class LogSubscriptionTest {
+	private static List<Message> pausedAndFlooded(LogSubscription.Overflow overflow) throws Exception {
+		ProcLog log = new ProcLog("subscription-test");
+		List<Message> received = new CopyOnWriteArrayList<>();
+		LogSubscription subscription = log.subscribe(received::add, 3, overflow);
+		subscription.pause();
+		for(int i = 0; i < 10; i++) {
+			log.addMsg("STDOUT", "line " + i);
+		}
+		assertEquals(3, subscription.getQueued());
+		assertEquals(7, subscription.getDropped());
+
+		subscription.resume();
+		while(received.size() < 4) {
+			Thread.sleep(5);
+		}
+		subscription.close();
+		return received;
+	}
+
+	@Test
+	@Timeout(value = 10, unit = TimeUnit.SECONDS)
+	public void dropOldestKeepsTheNewest() throws Exception {
+		List<Message> received = pausedAndFlooded(LogSubscription.Overflow.DROP_OLDEST);
+
+		//the drop notice comes first, then what was kept in order
+		assertEquals("log-dropped", received.get(0).type);
+		assertEquals(7, received.get(0).getData().getLong("count"));
+		for(int i = 0; i < 3; i++) {
+			JSONObject push = received.get(i + 1).getData();
+			assertEquals(7 + i, push.getLong("seq"));
+			assertEquals("line " + (7 + i), push.getString("msg"));
+			assertEquals("STDOUT", push.getString("info"));
+		}
+	}
+
+	@Test
+	@Timeout(value = 10, unit = TimeUnit.SECONDS)
+	public void dropNewestKeepsTheOldest() throws Exception {
+		List<Message> received = pausedAndFlooded(LogSubscription.Overflow.DROP_NEWEST);
+
+		assertEquals(7, received.get(0).getData().getLong("count"));
+		for(int i = 0; i < 3; i++) {
+			assertEquals("line " + i, received.get(i + 1).getData().getString("msg"));
+		}
+	}
+
+	@Test
+	@Timeout(value = 10, unit = TimeUnit.SECONDS)
+	public void closedSubscriptionsGetNothing() throws Exception {
+		ProcLog log = new ProcLog("subscription-test");
+		List<Message> received = new CopyOnWriteArrayList<>();
+		LogSubscription subscription = log.subscribe(received::add, 16, LogSubscription.Overflow.DROP_OLDEST);
+		log.addMsg("before");
+		while(received.isEmpty()) {
+			Thread.sleep(5);
+		}
+
+		subscription.close();
+		log.addMsg("after");
+		Thread.sleep(100);
+		assertEquals(1, received.size());
+		assertEquals("before", received.get(0).getData().getString("msg"));
+		assertFalse(received.get(0).getData().has("info"));
+		assertTrue(subscription.isClosed());
+	}
+}
@@ -0,0 +1,57 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/* logfile throughput: lines go through ProcLog.addMsg into a logfile, once written and flushed per line (how
+ProcLog used to write) and once batched through the shared LogWriter thread
+reported: lines per second from the first addMsg until the file is closed, and the file size to check nothing was lost
+
+usage: LogWriterBenchmark [lines]
+ */
+
+public class LogWriterBenchmark {
+	public static void main(String[] args) throws Exception {
+		int lines = args.length > 0 ? Integer.parseInt(args[0]) : 300_000;
+		Path dir = Files.createTempDirectory("logwriter-bench");
+
+		LogWriter.Policy immediate = LogWriter.Policy.Builder.newInstance().immediate().build();
+		LogWriter.Policy batched = LogWriter.DEFAULT_POLICY;
+
+		//warm up, then measure
+		run(dir, "warmup", immediate, lines / 10);
+		run(dir, "warmup", batched, lines / 10);
+
+		report("immediate", run(dir, "immediate", immediate, lines), lines);
+		report("batched", run(dir, "batched", batched, lines), lines);
+
+		try(var files = Files.list(dir)) {
+			for(Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(dir);
+	}
+
+	//nanoseconds taken, the log's file is left in dir
+	private static long[] run(Path dir, String name, LogWriter.Policy policy, int lines) throws Exception {
+		ProcLog log = new ProcLog(name);
+		log.disableStdout();
+		log.setLogPolicy(policy);
+		Path file = dir.resolve(name + ".log");
+		Files.deleteIfExists(file);
+		log.enableLogfile(dir + "/");
+
+		long start = System.nanoTime();
+		for(int i = 0; i < lines; i++) {
+			log.addMsg("STDOUT", "[Server thread/INFO]: Player" + (i % 100) + " moved to " + i + ", 64, -" + i);
+		}
+		log.disableLogFile();
+		long taken = System.nanoTime() - start;
+
+		return new long[] {taken, Files.size(file), Files.readAllLines(file).size()};
+	}
+
+	private static void report(String name, long[] result, int lines) {
+		System.out.printf("%-9s %8.0f lines/s  %6.1f MB  %d lines in file%n",
+			name, lines / (result[0] / 1e9), result[1] / 1e6, result[2]);
+	}
+}
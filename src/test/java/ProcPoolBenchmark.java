@@ -0,0 +1,84 @@
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/* per-process overhead: 10, 100 and 1000 long-lived children (`sleep`) are started through Proc and left idle
+reported: live JVM threads, pool threads, resident memory of the server and CPU it uses while every child is idle
+
+usage: ProcPoolBenchmark [counts...]
+ */
+
+public class ProcPoolBenchmark {
+	public static void main(String[] args) throws Exception {
+		int[] counts = {10, 100, 1000};
+		if(args.length > 0) {
+			counts = new int[args.length];
+			for(int i = 0; i < args.length; i++) {
+				counts[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.printf("capture: platform threads, callbacks: %s threads%n", ProcPool.isVirtual() ? "virtual" : "platform");
+		int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+		long baseRss = rssKiB();
+		System.out.printf("%5s %8s %13s %12s %10s %8s%n", "procs", "threads", "per process", "rss MiB", "KiB/proc", "idle cpu");
+
+		for(int count : counts) {
+			List<Proc> procs = new ArrayList<>();
+			for(int i = 0; i < count; i++) {
+				Proc proc = new Proc("idle-" + i, "sleep", "600");
+				proc.disableStdout();
+				proc.disableLogfile();
+				proc.start();
+				procs.add(proc);
+			}
+			Thread.sleep(2000);
+
+			int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+			long rss = rssKiB();
+			long cpu = cpuNanos();
+			long wall = System.nanoTime();
+			Thread.sleep(5000);
+			double idle = (double) (cpuNanos() - cpu) / (System.nanoTime() - wall);
+
+			System.out.printf("%5d %8d %13.2f %12.1f %10.1f %7.1f%%%n", count, threads,
+				(double) (threads - baseThreads) / count, rss / 1024.0, (double) (rss - baseRss) / count, idle * 100);
+
+			for(Proc proc : procs) {
+				proc.stop();
+			}
+			Thread.sleep(2000);
+		}
+	}
+
+	//resident set of this JVM in KiB, 0 where /proc is not available
+	private static long rssKiB() throws Exception {
+		Path status = Path.of("/proc/self/status");
+		if(!Files.exists(status)) {
+			return 0;
+		}
+		for(String line : Files.readAllLines(status)) {
+			if(line.startsWith("VmRSS:")) {
+				return Long.parseLong(line.replaceAll("[^0-9]", ""));
+			}
+		}
+		return 0;
+	}
+
+	//this JVM plus its reaped children, children are only counted on Linux
+	private static long cpuNanos() throws Exception {
+		long own = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+
+		Path stat = Path.of("/proc/self/stat");
+		if(!Files.exists(stat)) {
+			return own;
+		}
+		//fields after the command name, cutime and cstime are fields 16 and 17 (clock ticks, 100 per second)
+		String line = Files.readString(stat);
+		String[] fields = line.substring(line.lastIndexOf(')') + 2).split(" ");
+		long ticks = Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+		return own + ticks * 10_000_000L;
+	}
+}
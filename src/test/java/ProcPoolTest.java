@@ -0,0 +1,53 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+//many idle children must not starve capture or the short callbacks that share the process pool
+public class ProcPoolTest {
+	private static final int CHILDREN = 200;
+
+	@Test
+	@Timeout(value = 60, unit = TimeUnit.SECONDS)
+	public void idleChildrenDontStarveThePool() throws Exception {
+		List<Proc> procs = new ArrayList<>();
+		try {
+			for(int i = 0; i < CHILDREN; i++) {
+				Proc proc = new Proc("idle-" + i, "sh", "-c", "echo ready; exec sleep 30");
+				proc.disableStdout();
+				proc.disableLogfile();
+				proc.start();
+				procs.add(proc);
+			}
+
+			//every child's one line is captured while all of them sit in a blocking read
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+			int captured = 0;
+			while(System.nanoTime() < deadline) {
+				captured = (int) procs.stream().filter(proc -> Arrays.stream(proc.getLog()).anyMatch(line -> line.endsWith("ready"))).count();
+				if(captured == CHILDREN) {
+					break;
+				}
+				Thread.sleep(50);
+			}
+			assertEquals(CHILDREN, captured, "output captured for " + captured + " of " + CHILDREN + " children");
+
+			//a short scheduler action still runs on time
+			CountDownLatch ran = new CountDownLatch(1);
+			long scheduled = System.nanoTime();
+			Scheduler.schedule(Duration.ofMillis(10), ran::countDown);
+			assertTrue(ran.await(2, TimeUnit.SECONDS), "10 ms action didn't run within 2 s");
+			assertTrue(System.nanoTime() - scheduled < TimeUnit.SECONDS.toNanos(1));
+		} finally {
+			for(Proc proc : procs) {
+				proc.stop();
+			}
+		}
+	}
+}
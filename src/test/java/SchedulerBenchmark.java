@@ -0,0 +1,63 @@
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* shared scheduler cost: entries are scheduled, half of them cancelled, and the rest left to fire
+reported: schedule and cancel cost per entry, and how late entries fire (from their deadline until the action runs)
+
+usage: SchedulerBenchmark [entries]
+ */
+
+public class SchedulerBenchmark {
+	public static void main(String[] args) throws Exception {
+		int entries = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+		//warm up, then measure
+		run(entries / 10);
+		run(entries);
+	}
+
+	private static void run(int entries) throws Exception {
+		Scheduler.Entry[] scheduled = new Scheduler.Entry[entries];
+		long[] due = new long[entries];
+		long[] late = new long[entries / 2];
+		CountDownLatch fired = new CountDownLatch(entries / 2);
+		AtomicInteger ran = new AtomicInteger();
+
+		//spread over the next second so the timer has real work to do
+		long start = System.nanoTime();
+		for(int i = 0; i < entries; i++) {
+			final int n = i;
+			long delay = 200_000_000L + (long) i * 800_000_000L / entries;
+			due[i] = System.nanoTime() + delay;
+			scheduled[i] = Scheduler.schedule(Duration.ofNanos(delay), () -> {
+				late[n / 2] = System.nanoTime() - due[n];
+				ran.incrementAndGet();
+				fired.countDown();
+			});
+		}
+		long scheduleTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for(int i = 1; i < entries; i += 2) {
+			scheduled[i].cancel();
+		}
+		long cancelTime = System.nanoTime() - start;
+
+		fired.await();
+		//cancelled entries would show up here
+		Thread.sleep(100);
+		System.out.printf("%7d entries  schedule %6.0f ns  cancel %6.0f ns | ran %d late p50 %7.1f us  p99 %8.1f us  max %8.1f us%n",
+			entries, (double) scheduleTime / entries, (double) cancelTime / (entries / 2), ran.get(),
+			percentile(late, 50), percentile(late, 99), percentile(late, 100));
+	}
+
+	//in microseconds
+	private static double percentile(long[] samples, int p) {
+		long[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		int index = Math.min(sorted.length - 1, (int) Math.ceil(p / 100.0 * sorted.length) - 1);
+		return sorted[Math.max(0, index)] / 1000.0;
+	}
+}
@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+//activation order, cancelling and rescheduling of timer entries
+public class SchedulerTest {
+	@Test
+	@Timeout(value = 10, unit = TimeUnit.SECONDS)
+	public void entriesFireInTimeOrder() throws Exception {
+		List<Integer> order = new CopyOnWriteArrayList<>();
+		CountDownLatch done = new CountDownLatch(4);
+		LocalDateTime now = LocalDateTime.now();
+
+		//wall clock and delay entries share the timer, each runs once its own time has come
+		Scheduler.schedule(Duration.ofMillis(300), () -> { order.add(3); done.countDown(); });
+		Scheduler.schedule(now.plusNanos(100_000_000), () -> { order.add(1); done.countDown(); });
+		Scheduler.schedule(now.plusNanos(400_000_000), () -> { order.add(4); done.countDown(); });
+		long start = System.nanoTime();
+		Scheduler.schedule(Duration.ofMillis(200), () -> { order.add(2); done.countDown(); });
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(List.of(1, 2, 3, 4), order);
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+	}
+
+	@Test
+	@Timeout(value = 10, unit = TimeUnit.SECONDS)
+	public void cancelledEntriesDontRun() throws Exception {
+		AtomicInteger ran = new AtomicInteger();
+		CountDownLatch last = new CountDownLatch(1);
+
+		Scheduler.Entry cancelled = Scheduler.schedule(Duration.ofMillis(50), ran::incrementAndGet);
+		//enough cancels to trigger a purge of the queues as well
+		for(int i = 0; i < 200; i++) {
+			Scheduler.schedule(Duration.ofMillis(60), ran::incrementAndGet).cancel();
+		}
+		cancelled.cancel();
+		cancelled.cancel();
+		Scheduler.schedule(Duration.ofMillis(100), last::countDown);
+
+		assertTrue(last.await(5, TimeUnit.SECONDS));
+		assertTrue(cancelled.isCancelled());
+		assertEquals(0, ran.get());
+	}
+
+	@Test
+	@Timeout(value = 10, unit = TimeUnit.SECONDS)
+	public void rescheduleReplacesTheEntry() throws Exception {
+		List<Scheduler.Entry> fired = new CopyOnWriteArrayList<>();
+		CountDownLatch done = new CountDownLatch(1);
+
+		Scheduler.Entry first = Scheduler.schedule(LocalDateTime.now().plusHours(1), entry -> {
+			fired.add(entry);
+			done.countDown();
+		});
+		Scheduler.Entry moved = Scheduler.reschedule(first, LocalDateTime.now().plusNanos(50_000_000));
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(first.isCancelled());
+		assertEquals(List.of(moved), fired);
+	}
+
+	@Test
+	public void pastRescheduleIsRefused() {
+		Proc proc = new Proc("reschedule-test", "true");
+		Task task = Task.Builder.newInstance("nightly").restartProcess().daily().at(LocalTime.of(4, 0)).build();
+		proc.addTask(task);
+		LocalDateTime time = task.getElapseTime();
+
+		assertFalse(proc.rescheduleTask(task, LocalDateTime.now().minusHours(1)));
+		assertEquals(time, task.getElapseTime());
+
+		LocalDateTime later = LocalDateTime.now().plusDays(2);
+		assertTrue(proc.rescheduleTask(task, later));
+		assertEquals(later, task.getElapseTime());
+		proc.removeTask(task);
+	}
+}
@@ -0,0 +1,52 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+//session tokens issued at login
+public class SessionsTest {
+	private static final Duration HOUR = Duration.ofHours(1);
+
+	@Test
+	public void validTokenNamesItsUser() {
+		String token = Sessions.create("alice", HOUR);
+		assertEquals(43, token.length());
+		assertEquals("alice", Sessions.validate(token));
+		assertNotEquals(token, Sessions.create("alice", HOUR));
+	}
+
+	@Test
+	public void forgedTokensAreRefused() {
+		String token = Sessions.create("alice", HOUR);
+
+		//same session id, different secret (the last character only carries padding bits in part, change one before it)
+		char c = token.charAt(30);
+		String tampered = token.substring(0, 30) + (c == 'A' ? 'B' : 'A') + token.substring(31);
+		assertNull(Sessions.validate(tampered));
+		assertNull(Sessions.validate(token.substring(1)));
+		assertNull(Sessions.validate("!".repeat(43)));
+		assertNull(Sessions.validate(null));
+	}
+
+	@Test
+	public void expiredTokensAreRefused() throws Exception {
+		String token = Sessions.create("alice", Duration.ofMillis(1));
+		Thread.sleep(20);
+		assertNull(Sessions.validate(token));
+	}
+
+	@Test
+	public void revokeEndsSessions() {
+		String first = Sessions.create("bob", HOUR);
+		String second = Sessions.create("bob", HOUR);
+		String other = Sessions.create("carol", HOUR);
+
+		Sessions.revoke(first);
+		assertNull(Sessions.validate(first));
+		assertEquals("bob", Sessions.validate(second));
+
+		Sessions.revokeUser("bob");
+		assertNull(Sessions.validate(second));
+		assertEquals("carol", Sessions.validate(other));
+	}
+}
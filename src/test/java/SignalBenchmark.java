@@ -0,0 +1,86 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+/* stdin latency while a child floods stdout: signals are written through ProcIO to a child that copies stdin to
+stderr, once with a quiet child and once with `yes` flooding stdout in the background
+reported: how long write() takes to return and how long until the signal comes back on stderr
+
+usage: SignalBenchmark [signals]
+ */
+
+public class SignalBenchmark {
+	public static void main(String[] args) throws Exception {
+		int signals = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+		report("quiet", run("quiet", "cat >&2", signals));
+		report("flooding", run("flooding", "yes flood & cat >&2", signals));
+	}
+
+	//latencies in nanoseconds, one per signal
+	static class Result {
+		final long[] call;   //until write() returned
+		final long[] echo;   //until the signal came back on stderr
+		final long flooded;  //stdout lines drained meanwhile
+		final boolean refused; //some write() returned false
+
+		Result(long[] call, long[] echo, long flooded, boolean refused) {
+			this.call = call;
+			this.echo = echo;
+			this.flooded = flooded;
+			this.refused = refused;
+		}
+	}
+
+	static Result run(String name, String script, int signals) throws Exception {
+		Process child = new ProcessBuilder("sh", "-c", script).start();
+		ProcIO io = new ProcIO(name, child.getOutputStream(), child.getInputStream(), child.getErrorStream(), StandardCharsets.UTF_8);
+
+		long[] sent = new long[signals];
+		long[] call = new long[signals];
+		long[] echo = new long[signals];
+
+		//stdout is only drained, stderr records when each signal comes back
+		long[] flooded = new long[1];
+		Future<?> out = ProcPool.submit(() -> io.capture(false, (info, line) -> flooded[0]++));
+		CountDownLatch seen = new CountDownLatch(signals);
+		ProcPool.submit(() -> io.capture(true, (info, line) -> {
+			if(line.startsWith("signal-")) {
+				int n = Integer.parseInt(line.substring(7));
+				echo[n] = System.nanoTime() - sent[n];
+				seen.countDown();
+			}
+		}));
+
+		boolean refused = false;
+		for(int i = 0; i < signals; i++) {
+			sent[i] = System.nanoTime();
+			refused |= !io.write("signal-" + i);
+			call[i] = System.nanoTime() - sent[i];
+			Thread.sleep(1);
+		}
+		seen.await();
+
+		child.destroy();
+		io.destroy();
+		out.get();
+		return new Result(call, echo, flooded[0], refused);
+	}
+
+	private static void report(String name, Result result) {
+		long[] call = result.call;
+		long[] echo = result.echo;
+		System.out.printf("%-9s write p50 %6.1f us  p99 %8.1f us  max %8.1f us | echo p50 %7.1f us  p99 %8.1f us  max %9.1f us | %d stdout lines%n",
+			name, percentile(call, 50), percentile(call, 99), percentile(call, 100),
+			percentile(echo, 50), percentile(echo, 99), percentile(echo, 100), result.flooded);
+	}
+
+	//in microseconds
+	static double percentile(long[] samples, int p) {
+		long[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		int index = Math.min(sorted.length - 1, (int) Math.ceil(p / 100.0 * sorted.length) - 1);
+		return sorted[Math.max(0, index)] / 1000.0;
+	}
+}
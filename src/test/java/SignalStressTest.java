@@ -0,0 +1,22 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+//stdin stays responsive while the child floods stdout (see SignalBenchmark for the numbers)
+//bounds are loose on purpose, they catch a child blocked behind its own output, not scheduling noise
+public class SignalStressTest {
+	private static final int SIGNALS = 500;
+
+	@Test
+	@Timeout(value = 60, unit = TimeUnit.SECONDS)
+	public void signalsGetThroughWhileStdoutFloods() throws Exception {
+		SignalBenchmark.Result result = SignalBenchmark.run("flooding", "yes flood & cat >&2", SIGNALS);
+
+		assertFalse(result.refused, "stdin refused a write");
+		assertTrue(result.flooded > 100_000, "stdout wasn't drained while signals were sent: " + result.flooded + " lines");
+		assertTrue(SignalBenchmark.percentile(result.call, 99) < 20_000, "write() p99 over 20 ms");
+		assertTrue(SignalBenchmark.percentile(result.echo, 99) < 200_000, "signal echo p99 over 200 ms");
+	}
+}
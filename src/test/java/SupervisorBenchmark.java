@@ -0,0 +1,86 @@
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/* crash loop cost: a child that exits immediately is auto-restarted for a while, once restarting right away (how
+Proc used to restart) and once under a supervisor policy with backoff and a restart limit
+reported: starts, whether the supervisor gave up, and CPU used by the server and its children as a share of one core
+
+usage: SupervisorBenchmark [seconds]
+ */
+
+public class SupervisorBenchmark {
+	public static void main(String[] args) throws Exception {
+		long seconds = args.length > 0 ? Long.parseLong(args[0]) : 10;
+
+		Supervisor.Policy immediate = Supervisor.Policy.Builder.newInstance()
+			.backoff(Duration.ZERO, Duration.ZERO, 1)
+			.jitter(0)
+			.intensity(Integer.MAX_VALUE, Duration.ofMinutes(1))
+			.build();
+		Supervisor.Policy supervised = Supervisor.Policy.Builder.newInstance()
+			.backoff(Duration.ofMillis(50), Duration.ofSeconds(1), 2)
+			.intensity(20, Duration.ofMinutes(1))
+			.build();
+
+		report("immediate", run("immediate", immediate, seconds));
+		report("supervised", run("supervised", supervised, seconds));
+	}
+
+	static class Result {
+		final long starts;
+		final boolean gaveUp;
+		final double cpu;    //cores used by the server and its children
+		final double seconds;
+
+		Result(long starts, boolean gaveUp, double cpu, double seconds) {
+			this.starts = starts;
+			this.gaveUp = gaveUp;
+			this.cpu = cpu;
+			this.seconds = seconds;
+		}
+	}
+
+	//auto-restart `true` under policy for the given time
+	static Result run(String name, Supervisor.Policy policy, long seconds) throws Exception {
+		Proc proc = new Proc(name, "true");
+		proc.disableStdout();
+		proc.disableLogfile();
+		proc.setSupervisorPolicy(policy);
+		proc.enableAutorestart();
+
+		long cpu = cpuNanos();
+		long started = System.nanoTime();
+		proc.start();
+		Thread.sleep(seconds * 1000);
+
+		proc.disableAutorestart();
+		proc.stop();
+		double wall = (System.nanoTime() - started) / 1e9;
+		double used = (cpuNanos() - cpu) / 1e9;
+
+		Supervisor supervisor = proc.getSupervisor();
+		return new Result(supervisor.getTotalRestarts() + 1, supervisor.hasGivenUp(), used / wall, wall);
+	}
+
+	private static void report(String name, Result result) {
+		System.out.printf("%-10s %7d starts %8.1f starts/s  gave up: %-5b  cpu %5.1f%% of a core%n",
+			name, result.starts, result.starts / result.seconds, result.gaveUp, result.cpu * 100);
+	}
+
+	//this JVM plus its reaped children, children are only counted on Linux
+	static long cpuNanos() throws Exception {
+		long own = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+
+		Path stat = Path.of("/proc/self/stat");
+		if(!Files.exists(stat)) {
+			return own;
+		}
+		//fields after the command name, cutime and cstime are fields 16 and 17 (clock ticks, 100 per second)
+		String line = Files.readString(stat);
+		String[] fields = line.substring(line.lastIndexOf(')') + 2).split(" ");
+		long ticks = Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+		return own + ticks * 10_000_000L;
+	}
+}
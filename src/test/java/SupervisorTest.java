@@ -0,0 +1,84 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+//auto-restart of a child that exits immediately stays bounded (see SupervisorBenchmark for the numbers)
+public class SupervisorTest {
+	@Test
+	@Timeout(value = 30, unit = TimeUnit.SECONDS)
+	public void crashLoopIsBackedOff() throws Exception {
+		Supervisor.Policy policy = Supervisor.Policy.Builder.newInstance()
+			.backoff(Duration.ofMillis(50), Duration.ofSeconds(1), 2)
+			.intensity(20, Duration.ofMinutes(1))
+			.build();
+		SupervisorBenchmark.Result result = SupervisorBenchmark.run("crash-loop", policy, 4);
+
+		//50 + 100 + 200 + 400 + 800 + 1000 ms (+-20% jitter) fits about 7 starts in 4 s, restarting right away hundreds
+		assertTrue(result.starts >= 3, "the child wasn't restarted: " + result.starts + " starts");
+		assertTrue(result.starts <= 10, "restarts weren't backed off: " + result.starts + " starts");
+		assertFalse(result.gaveUp);
+		assertTrue(result.cpu < 0.25, "crash loop used " + Math.round(result.cpu * 100) + "% of a core");
+	}
+
+	@Test
+	@Timeout(value = 30, unit = TimeUnit.SECONDS)
+	public void givesUpAfterTooManyRestarts() throws Exception {
+		Proc proc = quietProc("give-up", "sh", "-c", "exit 3");
+		proc.setSupervisorPolicy(Supervisor.Policy.Builder.newInstance()
+			.backoff(Duration.ofMillis(10), Duration.ofMillis(50), 2)
+			.intensity(3, Duration.ofMinutes(1))
+			.build());
+		proc.enableAutorestart();
+		proc.start();
+
+		while(!proc.getSupervisor().hasGivenUp()) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(200);
+
+		assertFalse(proc.isRunning());
+		assertFalse(proc.isRestartPending());
+		assertEquals(3, proc.getSupervisor().getTotalRestarts());
+		assertTrue(Arrays.stream(proc.getLog()).anyMatch(line -> line.contains("[SUPERVISOR]") && line.contains("exited with code 3")));
+		assertTrue(Arrays.stream(proc.getLog()).anyMatch(line -> line.contains("giving up after 3 restarts")));
+
+		//a start by hand clears the give-up state
+		proc.start();
+		assertFalse(proc.getSupervisor().hasGivenUp());
+		proc.disableAutorestart();
+		proc.stop();
+	}
+
+	@Test
+	@Timeout(value = 30, unit = TimeUnit.SECONDS)
+	public void stopCancelsAPendingRestart() throws Exception {
+		Proc proc = quietProc("stopped", "true");
+		proc.setSupervisorPolicy(Supervisor.Policy.Builder.newInstance()
+			.backoff(Duration.ofMillis(300), Duration.ofMillis(300), 1)
+			.jitter(0)
+			.build());
+		proc.enableAutorestart();
+		proc.start();
+
+		while(!proc.isRestartPending()) {
+			Thread.sleep(5);
+		}
+		proc.stop();
+		Thread.sleep(600);
+
+		assertFalse(proc.isRunning());
+		assertFalse(proc.isRestartPending());
+		assertEquals(1, Arrays.stream(proc.getLog()).filter(line -> line.contains("Process is starting.")).count());
+	}
+
+	private static Proc quietProc(String name, String... command) {
+		Proc proc = new Proc(name, command[0], Arrays.copyOfRange(command, 1, command.length));
+		proc.disableStdout();
+		proc.disableLogfile();
+		return proc;
+	}
+}
@@ -0,0 +1,62 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import org.junit.jupiter.api.Test;
+
+//decoding tasks from request data
+public class TaskTest {
+	private static final String[][] FIELDS = {
+		{"type", "\"signal\""}, {"name", "\"save\""}, {"elapse-time", "\"2030-01-01T04:00\""}, {"frequency", "\"PT24H\""},
+		{"enabled", "true"}, {"one-time", "false"}, {"signal", "\"save-all\""}
+	};
+	private static final String TASK = task(null);
+
+	//the test task without one field
+	private static String task(String without) {
+		StringBuilder json = new StringBuilder("{");
+		for(String[] field : FIELDS) {
+			if(!field[0].equals(without)) {
+				json.append(json.length() > 1 ? ", " : "").append('"').append(field[0]).append("\": ").append(field[1]);
+			}
+		}
+		return json.append('}').toString();
+	}
+
+	private static Task read(String json) {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		return new Task(new JsonReader(bytes, 0, bytes.length));
+	}
+
+	@Test
+	public void writeAndReadBack() {
+		Task task = Task.Builder.newInstance("nightly").restartProcess().daily().at(LocalTime.of(4, 0)).build();
+		JsonWriter out = new JsonWriter();
+		task.write(out);
+
+		Task read = read(out.toString());
+		assertEquals(out.toString(), writeOf(read));
+		assertEquals(task.toJSON().toString(), new Task(task.toJSON()).toJSON().toString());
+	}
+
+	@Test
+	public void everyFieldIsRequired() {
+		assertEquals("save", read(TASK).getName());
+		for(String[] field : FIELDS) {
+			IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> read(task(field[0])), "accepted a task without " + field[0]);
+			assertEquals("task is missing a required field", e.getMessage());
+		}
+	}
+
+	@Test
+	public void signalMayBeNull() {
+		Task task = read(TASK.replace("\"save-all\"", "null"));
+		assertTrue(writeOf(task).contains("\"signal\":null"));
+	}
+
+	private static String writeOf(Task task) {
+		JsonWriter out = new JsonWriter();
+		task.write(out);
+		return out.toString();
+	}
+}
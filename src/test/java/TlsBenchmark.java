@@ -0,0 +1,108 @@
+import javax.net.ssl.*;
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+
+/* full versus resumed TLS handshakes per second against the server on loopback
+
+usage: TlsBenchmark <key store> <password> [connections] [client threads]
+each connection does a handshake and one request/response round trip (which also delivers the TLS 1.3 ticket),
+full handshakes invalidate the session afterwards so the next connection can't resume it
+ */
+
+public class TlsBenchmark {
+	public static void main(String[] args) throws Exception {
+		if(args.length < 2) {
+			System.err.println("usage: TlsBenchmark <key store> <password> [connections] [client threads]");
+			return;
+		}
+		char[] password = args[1].toCharArray();
+		int connections = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+		SSLContext serverContext = TlsEngine.createContext(args[0], password, Main.State.tlsSessionCacheSize, Main.State.tlsSessionTimeout);
+		Server server = new Server(0, Main.State.ioThreads, serverContext);
+		Thread acceptor = new Thread(server::run, "benchmark-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		//trust the server's own certificate
+		KeyStore store = KeyStore.getInstance(KeyStore.getDefaultType());
+		try(InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+			store.load(in, password);
+		}
+		TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trust.init(store);
+		SSLContext clientContext = SSLContext.getInstance("TLS");
+		clientContext.init(null, trust.getTrustManagers(), null);
+
+		//warm up both paths before measuring
+		run(clientContext, server.getPort(), connections / 10, threads, false);
+		run(clientContext, server.getPort(), connections / 10, threads, true);
+
+		double fullRate = run(clientContext, server.getPort(), connections, threads, false);
+		double resumedRate = run(clientContext, server.getPort(), connections, threads, true);
+		System.out.printf("full handshakes:    %.0f/s%n", fullRate);
+		System.out.printf("resumed handshakes: %.0f/s%n", resumedRate);
+		System.out.println("server counts: " + metrics());
+		server.close();
+	}
+
+	//connections per second over all client threads
+	private static double run(SSLContext context, int port, int connections, int threads, boolean resume) throws Exception {
+		SSLSocketFactory factory = context.getSocketFactory();
+		Thread[] workers = new Thread[threads];
+		Exception[] failure = new Exception[1];
+
+		long started = System.nanoTime();
+		for(int i = 0; i < threads; i++) {
+			int share = connections / threads;
+			workers[i] = new Thread(() -> {
+				try {
+					for(int n = 0; n < share; n++) {
+						connect(factory, port, resume);
+					}
+				} catch(Exception e) {
+					failure[0] = e;
+				}
+			});
+			workers[i].start();
+		}
+		for(var worker : workers) {
+			worker.join();
+		}
+		if(failure[0] != null) {
+			throw failure[0];
+		}
+
+		double seconds = (System.nanoTime() - started) / 1e9;
+		return (connections / threads * threads) / seconds;
+	}
+
+	private static void connect(SSLSocketFactory factory, int port, boolean resume) throws Exception {
+		try(SSLSocket socket = (SSLSocket) factory.createSocket("localhost", port)) {
+			socket.setTcpNoDelay(true);
+			socket.startHandshake();
+
+			OutputStream out = socket.getOutputStream();
+			out.write("{\"operation\": \"request\", \"type\": \"system\", \"object count\": 1, \"data\": {\"action\": \"list\"}}\n".getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+
+			if(!resume) {
+				socket.getSession().invalidate();
+			}
+		}
+	}
+
+	private static String metrics() {
+		JsonWriter out = new JsonWriter();
+		TlsEngine.writeMetrics(out);
+		return out.toString();
+	}
+}